@@ -0,0 +1,118 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Sleeping nodes of the active-set mode of the array layout.
+ * <p>
+ * A node whose displacement stays below the sleep threshold for a number of iterations falls asleep: it keeps
+ * its position and still counts as mass for the other nodes, but its own forces are no longer computed. It wakes
+ * up when a neighbor moves more than {@link #WAKE_RATIO} times the threshold, or when all the nodes are woken up
+ * periodically. Fixed nodes never move, they sleep all the time. The threshold is relative to the mean length of
+ * the edges, measured again at each periodic wake up, so it doesn't depend on the scale of the layout.
+ */
+class ActiveSet {
+
+    // A node moving more than this many times the sleep threshold wakes its neighbors
+    private static final double WAKE_RATIO = 10;
+
+    final boolean[] asleep;
+    private final int[] still;
+    private final boolean[] moved;
+    private int activeCount;
+    private double threshold;
+
+    ActiveSet(LayoutData data) {
+        int nodeCount = data.nodeCount;
+        asleep = new boolean[nodeCount];
+        still = new int[nodeCount];
+        moved = new boolean[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            asleep[n] = data.fixed[n];
+            if (!asleep[n]) {
+                activeCount++;
+            }
+        }
+    }
+
+    /**
+     * Sets the sleep threshold to <code>relativeThreshold</code> times the mean length of the edges.
+     */
+    void rescale(LayoutData data, double relativeThreshold) {
+        double length = 0;
+        int counted = 0;
+        for (int e = 0; e < data.edgeCount; e++) {
+            int source = data.edgeSource[e];
+            int target = data.edgeTarget[e];
+            if (source != target) {
+                double zDist = data.threeDimensional ? data.z[source] - data.z[target] : 0;
+                length += Math.sqrt(Math.pow(data.x[source] - data.x[target], 2)
+                        + Math.pow(data.y[source] - data.y[target], 2) + zDist * zDist);
+                counted++;
+            }
+        }
+        threshold = relativeThreshold * (counted > 0 && length > 0 ? length / counted : 1);
+    }
+
+    /**
+     * Wakes up the nodes that aren't fixed. Nodes that are still quiet fall asleep again after one iteration.
+     */
+    void wakeAll(LayoutData data, int sleepIterations) {
+        activeCount = 0;
+        for (int n = 0; n < data.nodeCount; n++) {
+            if (asleep[n] && !data.fixed[n]) {
+                asleep[n] = false;
+                still[n] = sleepIterations - 1;
+            }
+            if (!asleep[n]) {
+                activeCount++;
+            }
+        }
+    }
+
+    /**
+     * Records the displacement of an awake node at this iteration, the node may fall asleep. Sleeping nodes keep
+     * the record of their last, small, displacement.
+     */
+    void record(int n, double displacement, int sleepIterations) {
+        moved[n] = displacement > WAKE_RATIO * threshold;
+        if (displacement < threshold) {
+            if (++still[n] >= sleepIterations) {
+                asleep[n] = true;
+            }
+        } else {
+            still[n] = 0;
+        }
+    }
+
+    /**
+     * Wakes up the sleeping nodes of <code>[from, to)</code> next to a node that moved a lot, and returns the
+     * number of awake nodes of the range. Only writes to the nodes of the range.
+     */
+    int wakeNeighbors(LayoutData data, int from, int to) {
+        int[] start = data.adjacencyStart;
+        int[] other = data.adjacencyNode;
+        int awake = 0;
+        for (int n = from; n < to; n++) {
+            if (asleep[n] && !data.fixed[n]) {
+                for (int k = start[n]; k < start[n + 1]; k++) {
+                    if (moved[other[k]]) {
+                        asleep[n] = false;
+                        still[n] = 0;
+                        break;
+                    }
+                }
+            }
+            if (!asleep[n]) {
+                awake++;
+            }
+        }
+        return awake;
+    }
+
+    int getActiveCount() {
+        return activeCount;
+    }
+
+    void setActiveCount(int activeCount) {
+        this.activeCount = activeCount;
+    }
+}
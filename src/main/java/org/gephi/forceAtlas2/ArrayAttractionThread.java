@@ -0,0 +1,103 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.forceAtlas2.ForceFactory.AttractionKernel;
+
+/**
+ * Attraction for a range of nodes of a {@link LayoutData}, over its compressed sparse row view of the edges.
+ * <p>
+ * Each edge is seen from both of its nodes and each side only shifts its own node, so tasks working on
+ * disjoint ranges need no synchronization. When strengths are logged, the task records the deltas of its
+ * nodes before attraction (the repulsion) and the attraction alone, in the plane. Sleeping nodes of the active-set
+ * mode get no attraction. With {@link ForceAtlas2#setEdgeSampling(Double) edge sampling}, each edge is kept at
+ * random with the sampling rate, and its attraction divided by that rate. The draw is keyed on the edge, so both
+ * of its nodes see the same one.
+ */
+class ArrayAttractionThread implements Runnable {
+
+    private final LayoutData data;
+    private final int from;
+    private final int to;
+    private final AttractionKernel attraction;
+    private final double[] weight;
+    private final boolean[] outbound;
+    private final ForceAtlas2Strengths strengths;
+    private final boolean[] asleep;
+    private final double edgeSampling;
+    private final long drawKey;
+
+    /**
+     * @param weight   influence-adjusted weight of each adjacency entry
+     * @param outbound  whether the node of each adjacency entry is the source of the edge
+     * @param strengths the diagnostics columns, or <code>null</code>
+     * @param asleep    the sleeping nodes, or <code>null</code> outside of the active-set mode
+     * @param edgeSampling the share of the edges kept, 1 to take them all
+     * @param drawKey      the key of the draws of the iteration
+     */
+    ArrayAttractionThread(LayoutData data, int from, int to, AttractionKernel attraction, double[] weight, boolean[] outbound,
+                          ForceAtlas2Strengths strengths, boolean[] asleep, double edgeSampling,
+                          long drawKey) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+        this.attraction = attraction;
+        this.weight = weight;
+        this.outbound = outbound;
+        this.strengths = strengths;
+        this.asleep = asleep;
+        this.edgeSampling = edgeSampling;
+        this.drawKey = drawKey;
+    }
+
+    @Override
+    public void run() {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        int[] start = data.adjacencyStart;
+        int[] other = data.adjacencyNode;
+        float[] z = data.threeDimensional ? data.z : null;
+        int[] edge = data.adjacencyEdge;
+        double rate = edgeSampling;
+
+        for (int n = from; n < to; n++) {
+            double x1 = x[n];
+            double y1 = y[n];
+            double shiftX = 0;
+            double shiftY = 0;
+            double shiftZ = 0;
+            int end = asleep != null && asleep[n] ? start[n] : start[n + 1];
+            for (int k = start[n]; k < end; k++) {
+                if (rate < 1 && CounterRandom.uniform(drawKey, edge[k]) >= rate) {
+                    continue;
+                }
+                int n2 = other[k];
+                double xDist = x1 - x[n2];
+                double yDist = y1 - y[n2];
+                double zDist = z != null ? z[n] - z[n2] : 0;
+                // The factor is the one of the edge, computed with the mass of its source
+                double factor = attraction.factor(xDist * xDist + yDist * yDist + zDist * zDist,
+                        mass[outbound[k] ? n : n2], size[n], size[n2], weight[k]) / rate;
+                shiftX += xDist * factor;
+                shiftY += yDist * factor;
+                shiftZ += zDist * factor;
+            }
+            if (z != null) {
+                data.dz[n] += shiftZ;
+            }
+            int slot = strengths != null ? strengths.slot(n) : -1;
+            if (slot >= 0) {
+                strengths.x[slot] = x1;
+                strengths.y[slot] = y1;
+                strengths.repulsionDx[slot] = dx[n];
+                strengths.repulsionDy[slot] = dy[n];
+                strengths.attractionDx[slot] = shiftX;
+                strengths.attractionDy[slot] = shiftY;
+            }
+            dx[n] += shiftX;
+            dy[n] += shiftY;
+        }
+    }
+}
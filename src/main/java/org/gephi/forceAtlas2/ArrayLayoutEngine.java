@@ -0,0 +1,544 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Edge;
+import org.gephi.model.Node;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the ForceAtlas 2 iterations on a {@link LayoutData} instead of <code>Node</code> objects.
+ * <p>
+ * Settings are read from the owning {@link ForceAtlas2} at each iteration. The nodes are only
+ * touched when a custom force needs them and by {@link #writeBack()}. A {@link BulkRepulsionForce} of the
+ * repulsion provider replaces the built-in repulsion, a parallelizable {@link BulkCustomForce} runs on the
+ * same cost-balanced ranges as the repulsion. In the active-set mode, see {@link ActiveSet}, the forces of the
+ * sleeping nodes are skipped.
+ */
+class ArrayLayoutEngine {
+
+    private ForceAtlas2 layout;
+    private final LayoutData data;
+    private Node[] nodes;
+    private Edge[] edges;
+    private ExecutorService pool;
+    private int threadCount;
+    private final DeltaBuffers deltaBuffers;
+    private LinearQuadtree tree;
+    private LinearOctree octree;
+    private OverlapGrid collisionGrid;
+    private CostBalancedRanges repulsionRanges;
+    private boolean repulsionRangesTriangular;
+    private CostBalancedRanges customForceRanges;
+    private ActiveSet activeSet;
+    private BulkRepulsionForce repulsionOverride;
+    private BulkRepulsionForce additionalRepulsion;
+    private FmmRepulsion fmm;
+    private long iterations;
+    private double[] attractionWeight;
+    private boolean[] attractionOutbound;
+    private double attractionWeightInfluence;
+    private int[] attractionBounds;
+    private double speed = 1.;
+    private double speedEfficiency = 1.;
+    private double totalSwinging;
+    private double totalEffectiveTraction;
+    private double outboundAttCompensation = Double.NaN;
+    private ForceAtlas2Strengths strengths;
+
+    ArrayLayoutEngine(ForceAtlas2 layout, LayoutData data, Node[] nodes, Edge[] edges, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.data = data;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.pool = pool;
+        this.threadCount = threadCount;
+        this.deltaBuffers = new DeltaBuffers(data.nodeCount, data.threeDimensional);
+    }
+
+    // The repulsion replacing the built-in one: the override, the provider's bulk force, or the fast multipole method
+    private BulkRepulsionForce bulkRepulsion(double scalingRatio) {
+        if (repulsionOverride != null) {
+            return repulsionOverride;
+        }
+        BulkRepulsionForce provided = layout.getRepulsionForceProvider() != null ? layout.getRepulsionForceProvider()
+                .getBulkRepulsionForce(layout.isAdjustSizes(), scalingRatio) : null;
+        // The multipole expansions are those of the plane
+        if (provided != null || !layout.isFmmOptimize() || data.threeDimensional) {
+            return provided;
+        }
+        if (fmm == null) {
+            fmm = new FmmRepulsion(layout.isAdjustSizes(), scalingRatio);
+            fmm.setExecutor(pool);
+            fmm.setThreadsCount(threadCount);
+        }
+        fmm.setKernel(layout.isAdjustSizes(), scalingRatio);
+        fmm.setOrder(layout.getFmmOrder());
+        return fmm;
+    }
+
+    /**
+     * Starts over for a layout of the graph the data now holds, keeping the arrays and trees that are long
+     * enough, so a thread laying out many graphs in a row reuses a single engine.
+     */
+    void reset(ForceAtlas2 layout, Node[] nodes, Edge[] edges, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.pool = pool;
+        this.threadCount = threadCount;
+        deltaBuffers.reset(data.nodeCount, data.threeDimensional);
+        if (tree != null) {
+            tree.invalidate();
+        }
+        if (octree != null) {
+            octree.invalidate();
+        }
+        if (repulsionRanges != null) {
+            repulsionRanges.reset(data.nodeCount, repulsionRangesTriangular);
+        }
+        if (customForceRanges != null) {
+            customForceRanges.reset(data.nodeCount, false);
+        }
+        activeSet = null;
+        repulsionOverride = null;
+        additionalRepulsion = null;
+        fmm = null;
+        iterations = 0;
+        attractionBounds = null;
+        speed = 1.;
+        speedEfficiency = 1.;
+        totalSwinging = 0;
+        totalEffectiveTraction = 0;
+        outboundAttCompensation = Double.NaN;
+        strengths = null;
+    }
+
+    /**
+     * Lets go of the buffers kept from one iteration to the next and of the layout, its nodes and edges and its
+     * forces. An engine kept for another graph only holds on to its arrays and trees until {@link #reset}.
+     */
+    void endAlgo() {
+        deltaBuffers.clear();
+        layout = null;
+        nodes = null;
+        edges = null;
+        pool = null;
+        strengths = null;
+        activeSet = null;
+        repulsionOverride = null;
+        additionalRepulsion = null;
+        fmm = null;
+    }
+
+    void goAlgo() {
+        int nodeCount = data.nodeCount;
+        double scalingRatio = layout.getScalingRatio();
+        BulkRepulsionForce bulkRepulsion = bulkRepulsion(scalingRatio);
+
+        // Active set: the sleeping nodes keep their position, and are all woken up periodically
+        if (layout.isActiveSet()) {
+            if (activeSet == null) {
+                activeSet = new ActiveSet(data);
+                activeSet.rescale(data, layout.getSleepThreshold());
+            } else if (layout.getWakeInterval() > 0 && iterations % layout.getWakeInterval() == 0) {
+                activeSet.wakeAll(data, layout.getSleepIterations());
+                activeSet.rescale(data, layout.getSleepThreshold());
+            }
+        } else {
+            activeSet = null;
+        }
+        boolean[] asleep = activeSet != null ? activeSet.asleep : null;
+
+        // If Barnes Hut active, build the tree, or only update it when it is still good enough. 3D uses an octree.
+        if (layout.isBarnesHutOptimize() && bulkRepulsion == null) {
+            // The tree is built on a fork-join pool, other executors build it in the calling thread
+            ForkJoinPool treePool = pool instanceof ForkJoinPool ? (ForkJoinPool) pool : null;
+            if (data.threeDimensional) {
+                if (octree == null) {
+                    octree = new LinearOctree(data);
+                }
+                if (!layout.isBarnesHutRefit() || !octree.refit(treePool, layout.getBarnesHutRefitTolerance())) {
+                    octree.build(treePool);
+                }
+            } else {
+                if (tree == null) {
+                    tree = new LinearQuadtree(data);
+                }
+                if (!layout.isBarnesHutRefit() || !tree.refit(treePool, layout.getBarnesHutRefitTolerance())) {
+                    tree.build(treePool);
+                }
+            }
+        }
+
+        // If outboundAttractionDistribution active, compensate. Masses don't change during the layout.
+        if (Double.isNaN(outboundAttCompensation)) {
+            outboundAttCompensation = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                outboundAttCompensation += data.mass[n];
+            }
+            outboundAttCompensation /= nodeCount;
+        }
+
+        // Diagnostics columns, null when they are off or the engine isn't bound to nodes
+        strengths = nodes != null ? layout.prepareStrengths(nodeCount) : null;
+
+        // Repulsion (and gravity), the tasks also move the deltas of their nodes to the old deltas
+        // NB: Muti-threaded
+        // With the collision grid, the overlapping pairs get their push in a pass of their own
+        boolean gridCollision = layout.isAdjustSizes() && layout.isCollisionGrid() && bulkRepulsion == null
+                && !data.threeDimensional;
+        ForceFactory.RepulsionKernel repulsion = ForceFactory.getForceFactory()
+                .buildRepulsionKernel(layout.isAdjustSizes() && !gridCollision, scalingRatio);
+        ForceFactory.GravityKernel gravity = ForceFactory.getForceFactory()
+                .buildGravityKernel(layout.isStrongGravityMode(), scalingRatio);
+        boolean barnesHutOptimize = layout.isBarnesHutOptimize();
+        double barnesHutTheta = layout.getBarnesHutTheta();
+        double g = layout.getGravity() / scalingRatio;
+        // The ranges are split on the cost of the nodes at the previous iteration, exact repulsion starts from the
+        // number of pairs of each node. With most nodes asleep, exact repulsion is cheaper from the awake side only.
+        // The delta buffers of the pairs are 2D, exact repulsion in 3D always goes by rows.
+        boolean exactRows = !barnesHutOptimize && bulkRepulsion == null
+                && (data.threeDimensional || asleep != null && 2 * activeSet.getActiveCount() < nodeCount);
+        LinearOctree octree = data.threeDimensional ? this.octree : null;
+        boolean pairs = !barnesHutOptimize && bulkRepulsion == null && !exactRows;
+        if (repulsionRanges == null || repulsionRangesTriangular != pairs) {
+            repulsionRanges = new CostBalancedRanges(nodeCount, pairs);
+            repulsionRangesTriangular = pairs;
+        }
+        if (bulkRepulsion != null) {
+            bulkRepulsion.prepare(data);
+        }
+        if (additionalRepulsion != null) {
+            additionalRepulsion.prepare(data);
+        }
+        repulsionRanges.run(pool, taskCount(), (from, to) -> new ArrayNodesThread(data,
+                from, to, barnesHutOptimize, barnesHutTheta, g, gravity, tree, repulsion, deltaBuffers, bulkRepulsion,
+                asleep, exactRows, octree, additionalRepulsion));
+        if (pairs || barnesHutOptimize && bulkRepulsion == null) {
+            // Merge the shifts of the other nodes of the pairs
+            ParallelRanges.run(pool, ParallelRanges.split(nodeCount, threadCount),
+                    (from, to) -> () -> deltaBuffers.reduceInto(data.dx, data.dy, data.dz, from, to));
+        }
+        if (gridCollision) {
+            if (collisionGrid == null) {
+                collisionGrid = new OverlapGrid();
+            }
+            collisionGrid.build(data, 0);
+            ForceFactory.RepulsionKernel antiCollision = ForceFactory.getForceFactory()
+                    .buildRepulsionKernel(true, scalingRatio);
+            ParallelRanges.run(pool, ParallelRanges.split(nodeCount, threadCount),
+                    (from, to) -> () -> collisionGrid.applyCollisionForce(data, from, to, antiCollision, asleep));
+        }
+
+        // Attraction, the tasks also log the repulsion and attraction of their nodes
+        ForceFactory.AttractionKernel attraction = ForceFactory.getForceFactory()
+                .buildAttractionKernel(layout.isLinLogMode(), layout.isOutboundAttractionDistribution(),
+                        layout.isAdjustSizes(), (layout.isOutboundAttractionDistribution()) ? (outboundAttCompensation) : (1));
+        prepareAttraction(layout.getEdgeWeightInfluence());
+        double edgeSampling = Math.max(Double.MIN_NORMAL, Math.min(1., layout.getEdgeSampling()));
+        long drawKey = CounterRandom.mix(layout.getSamplingSeed() ^ CounterRandom.GAMMA * iterations);
+        ParallelRanges.run(pool, attractionBounds, (from, to) -> new ArrayAttractionThread(data, from, to, attraction,
+                attractionWeight, attractionOutbound, strengths, asleep, edgeSampling, drawKey));
+
+        if (layout.getCustomForce() != null && nodes != null) {
+            // Custom forces work on Node objects, hand them the current state
+            data.writeTo(nodes);
+            layout.getCustomForce().apply(nodes, edges);
+            data.readDeltas(nodes);
+        }
+        BulkCustomForce bulkCustomForce = layout.getBulkCustomForce();
+        if (bulkCustomForce != null) {
+            bulkCustomForce.prepare(data);
+            if (bulkCustomForce.isParallelizable()) {
+                if (customForceRanges == null) {
+                    customForceRanges = new CostBalancedRanges(nodeCount);
+                }
+                customForceRanges.run(pool, taskCount(), (from, to) -> () -> bulkCustomForce.apply(data, from, to));
+            } else {
+                bulkCustomForce.apply(data, 0, nodeCount);
+            }
+        }
+
+        // Auto adjust speed
+        int[] bounds = ParallelRanges.split(nodeCount, threadCount);
+        double[] totals = ParallelRanges.sum(pool, bounds, this::sumSwingingAndTraction);
+        adjustSpeed(totals[0], totals[1]);
+
+        // Apply forces
+        ParallelRanges.run(pool, bounds, (from, to) -> () -> applyForces(from, to));
+
+        // The nodes next to the ones that moved a lot wake up
+        if (activeSet != null) {
+            double[] awake = ParallelRanges.sum(pool, bounds,
+                    (from, to) -> new double[]{activeSet.wakeNeighbors(data, from, to)});
+            activeSet.setActiveCount((int) awake[0]);
+        }
+
+        if (strengths != null) {
+            strengths.computeCustomForces(data.dx, data.dy);
+        }
+        iterations++;
+    }
+
+    /**
+     * Returns the total swinging (how much irregular movement) and effective traction (how much useful movement)
+     * of nodes <code>[from, to)</code>.
+     */
+    // More tasks than threads, because some tasks may need more time to compute. A single thread runs one task,
+    // in the calling thread.
+    private int taskCount() {
+        return threadCount > 1 ? 8 * threadCount : 1;
+    }
+
+    private double[] sumSwingingAndTraction(int from, int to) {
+        float[] mass = data.mass;
+        boolean[] fixed = data.fixed;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        double[] oldDx = data.oldDx;
+        double[] oldDy = data.oldDy;
+        boolean[] asleep = activeSet != null ? activeSet.asleep : null;
+        boolean threeDimensional = data.threeDimensional;
+        double totalSwinging = 0d;
+        double totalEffectiveTraction = 0d;
+        for (int n = from; n < to; n++) {
+            if (!fixed[n] && (asleep == null || !asleep[n])) {
+                double swingingZ = threeDimensional ? (data.oldDz[n] - data.dz[n]) * (data.oldDz[n] - data.dz[n]) : 0;
+                double tractionZ = threeDimensional ? (data.oldDz[n] + data.dz[n]) * (data.oldDz[n] + data.dz[n]) : 0;
+                double swinging = Math.sqrt((oldDx[n] - dx[n]) * (oldDx[n] - dx[n]) + (oldDy[n] - dy[n]) * (oldDy[n] - dy[n])
+                        + swingingZ);
+                totalSwinging += mass[n] * swinging;   // If the node has a burst change of direction, then it's not converging.
+                totalEffectiveTraction += mass[n] * 0.5 * Math
+                        .sqrt((oldDx[n] + dx[n]) * (oldDx[n] + dx[n]) + (oldDy[n] + dy[n]) * (oldDy[n] + dy[n]) + tractionZ);
+            }
+        }
+        return new double[]{totalSwinging, totalEffectiveTraction};
+    }
+
+    private void applyForces(int from, int to) {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        boolean[] fixed = data.fixed;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        double[] oldDx = data.oldDx;
+        double[] oldDy = data.oldDy;
+        boolean adjustSizes = layout.isAdjustSizes();
+        boolean[] asleep = activeSet != null ? activeSet.asleep : null;
+        int sleepIterations = layout.getSleepIterations();
+        float[] z = data.threeDimensional ? data.z : null;
+        for (int n = from; n < to; n++) {
+            int slot = strengths != null ? strengths.slot(n) : -1;
+            if (!fixed[n] && (asleep == null || !asleep[n])) {
+                double dz = z != null ? data.dz[n] : 0;
+                double swingingZ = z != null ? (data.oldDz[n] - dz) * (data.oldDz[n] - dz) : 0;
+                // Adaptive auto-speed: the speed of each node is lowered
+                // when the node swings.
+                double swinging = mass[n] * Math.sqrt((oldDx[n] - dx[n]) * (oldDx[n] - dx[n])
+                        + (oldDy[n] - dy[n]) * (oldDy[n] - dy[n]) + swingingZ);
+                double factor;
+                if (adjustSizes) {
+                    // If nodes overlap prevention is active, it's not possible to trust the swinging mesure.
+                    factor = 0.1 * speed / (1f + Math.sqrt(speed * swinging));
+                    double df = Math.sqrt(dx[n] * dx[n] + dy[n] * dy[n] + dz * dz);
+                    factor = Math.min(factor * df, 10.) / df;
+                } else {
+                    factor = speed / (1f + Math.sqrt(speed * swinging));
+                }
+
+                if (slot >= 0) {
+                    strengths.actualDx[slot] = dx[n] * factor;
+                    strengths.actualDy[slot] = dy[n] * factor;
+                }
+
+                x[n] = (float) (x[n] + dx[n] * factor);
+                y[n] = (float) (y[n] + dy[n] * factor);
+                if (z != null) {
+                    z[n] = (float) (z[n] + dz * factor);
+                }
+
+                if (asleep != null) {
+                    activeSet.record(n, factor * Math.sqrt(dx[n] * dx[n] + dy[n] * dy[n] + dz * dz), sleepIterations);
+                }
+            } else if (slot >= 0) {
+                strengths.actualDx[slot] = 0;
+                strengths.actualDy[slot] = 0;
+            }
+        }
+    }
+
+    /**
+     * Builds the adjacency of the edges, the weights of its entries for the edge weight influence and
+     * ranges of nodes with the same number of entries.
+     */
+    private void prepareAttraction(double edgeWeightInfluence) {
+        if (attractionBounds == null) {
+            if (!data.hasAdjacency()) {
+                data.buildAdjacency();
+            }
+            int nodeCount = data.nodeCount;
+            int[] start = data.adjacencyStart;
+            int entryCount = start[nodeCount];
+            if (attractionWeight == null || attractionWeight.length < entryCount) {
+                attractionWeight = new double[entryCount];
+                attractionOutbound = new boolean[entryCount];
+            }
+            attractionWeightInfluence = Double.NaN;
+
+            // Balance the entries, counting one per node for the per node work
+            int taskCount = Math.max(1, Math.min(nodeCount, taskCount()));
+            attractionBounds = new int[taskCount + 1];
+            long total = (long) entryCount + nodeCount;
+            int n = 0;
+            for (int t = 1; t < taskCount; t++) {
+                long target = total * t / taskCount;
+                while (n < nodeCount && (long) start[n] + n < target) {
+                    n++;
+                }
+                attractionBounds[t] = n;
+            }
+            attractionBounds[taskCount] = nodeCount;
+        }
+        if (attractionWeightInfluence != edgeWeightInfluence) {
+            int[] start = data.adjacencyStart;
+            int[] edge = data.adjacencyEdge;
+            int[] source = data.edgeSource;
+            double[] weight = data.edgeWeight;
+            ParallelRanges.run(pool, attractionBounds, (from, to) -> () -> {
+                for (int n = from; n < to; n++) {
+                    for (int k = start[n]; k < start[n + 1]; k++) {
+                        int e = edge[k];
+                        double w;
+                        if (edgeWeightInfluence == 0) {
+                            w = 1;
+                        } else if (edgeWeightInfluence == 1) {
+                            w = weight[e];
+                        } else {
+                            w = Math.pow(weight[e], edgeWeightInfluence);
+                        }
+                        attractionWeight[k] = w;
+                        attractionOutbound[k] = source[e] == n;
+                    }
+                }
+            });
+            attractionWeightInfluence = edgeWeightInfluence;
+        }
+    }
+
+    private void adjustSpeed(double totalSwinging, double totalEffectiveTraction) {
+        this.totalSwinging = totalSwinging;
+        this.totalEffectiveTraction = totalEffectiveTraction;
+        int nodeCount = data.nodeCount;
+        double jitterTolerance = layout.getJitterTolerance();
+
+        // Optimize jitter tolerance
+        // The 'right' jitter tolerance for this network. Bigger networks need more tolerance. Denser networks need less tolerance. Totally empiric.
+        double estimatedOptimalJitterTolerance = 0.05 * Math.sqrt(nodeCount);
+        double minJT = Math.sqrt(estimatedOptimalJitterTolerance);
+        double maxJT = 10;
+        double jt = jitterTolerance * Math.max(minJT,
+                Math.min(maxJT, estimatedOptimalJitterTolerance * totalEffectiveTraction / Math.pow(nodeCount, 2)));
+
+        double minSpeedEfficiency = 0.05;
+
+        // Protection against erratic behavior
+        if (totalSwinging / totalEffectiveTraction > 2.0) {
+            if (speedEfficiency > minSpeedEfficiency) {
+                speedEfficiency *= 0.5;
+            }
+            jt = Math.max(jt, jitterTolerance);
+        }
+
+        double targetSpeed = jt * speedEfficiency * totalEffectiveTraction / totalSwinging;
+
+        // Speed efficiency is how the speed really corresponds to the swinging vs. convergence tradeoff
+        // We adjust it slowly and carefully
+        if (totalSwinging > jt * totalEffectiveTraction) {
+            if (speedEfficiency > minSpeedEfficiency) {
+                speedEfficiency *= 0.7;
+            }
+        } else if (speed < 1000) {
+            speedEfficiency *= 1.3;
+        }
+
+        // But the speed shoudn't rise too much too quickly, since it would make the convergence drop dramatically.
+        double maxRise = 0.5;   // Max rise: 50%
+        speed = speed + Math.min(targetSpeed - speed, maxRise * speed);
+    }
+
+    /**
+     * Writes the current layout state to the nodes, when the engine is bound to nodes.
+     */
+    void writeBack() {
+        if (nodes != null) {
+            data.writeTo(nodes);
+        }
+    }
+
+    double getSpeed() {
+        return speed;
+    }
+
+    double getSpeedEfficiency() {
+        return speedEfficiency;
+    }
+
+    /**
+     * Restores the number of iterations done, when resuming a layout: the wake ups of the active set and the
+     * edge draws follow it.
+     */
+    void setIterations(long iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * Restores the speed state, when resuming a layout.
+     */
+    void setSpeed(double speed, double speedEfficiency) {
+        this.speed = speed;
+        this.speedEfficiency = speedEfficiency;
+    }
+
+    double getTotalSwinging() {
+        return totalSwinging;
+    }
+
+    double getTotalEffectiveTraction() {
+        return totalEffectiveTraction;
+    }
+
+    /**
+     * Replaces the repulsion of the layout, built-in or from its provider.
+     */
+    void setRepulsion(BulkRepulsionForce repulsion) {
+        this.repulsionOverride = repulsion;
+    }
+
+    /**
+     * Adds a repulsion to the one of the layout, on the same ranges of nodes, or removes it when
+     * <code>null</code>.
+     */
+    void setAdditionalRepulsion(BulkRepulsionForce repulsion) {
+        this.additionalRepulsion = repulsion;
+    }
+
+    /**
+     * Sets the compensation of the outbound attraction distribution, instead of the mean mass of the data.
+     */
+    void setOutboundAttCompensation(double outboundAttCompensation) {
+        this.outboundAttCompensation = outboundAttCompensation;
+    }
+
+    /**
+     * Returns the number of awake nodes in the active-set mode, else the number of nodes.
+     */
+    int getActiveCount() {
+        return activeSet != null ? activeSet.getActiveCount() : data.nodeCount;
+    }
+
+    LayoutData getData() {
+        return data;
+    }
+}
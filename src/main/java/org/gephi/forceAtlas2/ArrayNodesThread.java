@@ -0,0 +1,137 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.forceAtlas2.ForceFactory.GravityKernel;
+import org.gephi.forceAtlas2.ForceFactory.RepulsionKernel;
+
+/**
+ * Repulsion and gravity for a range of nodes of a {@link LayoutData}.
+ * <p>
+ * Only the deltas of the nodes in <code>[from, to)</code> are written directly. Exact repulsion
+ * visits each pair once and shifts the other node of the pair through a buffer the task holds in the
+ * {@link DeltaBuffers}, so the pairs take no lock. Barnes Hut pushes back the nodes it reaches one by one
+ * the same way, as the <code>Region</code> tree does. The task starts by moving the deltas of its
+ * nodes to their old deltas. A {@link BulkRepulsionForce}, when given, replaces the built-in repulsion, an
+ * additional one is added to it. In the
+ * active-set mode the sleeping nodes get neither repulsion nor gravity. In 3D, Barnes Hut runs on the octree and
+ * exact repulsion by rows.
+ */
+class ArrayNodesThread implements Runnable {
+
+    private final LayoutData data;
+    private final int from;
+    private final int to;
+    private final LinearQuadtree tree;
+    private final LinearOctree octree;
+    private final boolean barnesHutOptimize;
+    private final RepulsionKernel repulsion;
+    private final double barnesHutTheta;
+    private final double gravity;
+    private final GravityKernel gravityForce;
+    private final DeltaBuffers deltaBuffers;
+    private final BulkRepulsionForce bulkRepulsion;
+    private final boolean[] asleep;
+    private final boolean exactRows;
+    private final BulkRepulsionForce additionalRepulsion;
+
+    /**
+     * @param asleep    the sleeping nodes, or <code>null</code> outside of the active-set mode
+     * @param exactRows whether exact repulsion visits the pairs from both sides, only for the awake nodes
+     * @param octree    the Barnes Hut tree of a 3D layout
+     * @param additionalRepulsion added to the repulsion of the range, or <code>null</code>
+     */
+    ArrayNodesThread(LayoutData data, int from, int to, boolean barnesHutOptimize, double barnesHutTheta, double gravity, GravityKernel gravityForce, LinearQuadtree tree, RepulsionKernel repulsion, DeltaBuffers deltaBuffers, BulkRepulsionForce bulkRepulsion, boolean[] asleep, boolean exactRows, LinearOctree octree, BulkRepulsionForce additionalRepulsion) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+        this.tree = tree;
+        this.barnesHutOptimize = barnesHutOptimize;
+        this.repulsion = repulsion;
+        this.barnesHutTheta = barnesHutTheta;
+        this.gravity = gravity;
+        this.gravityForce = gravityForce;
+        this.deltaBuffers = deltaBuffers;
+        this.bulkRepulsion = bulkRepulsion;
+        this.asleep = asleep;
+        this.exactRows = exactRows;
+        this.octree = octree;
+        this.additionalRepulsion = additionalRepulsion;
+    }
+
+    @Override
+    public void run() {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        double[] oldDx = data.oldDx;
+        double[] oldDy = data.oldDy;
+
+        // Initialise layout data
+        for (int n = from; n < to; n++) {
+            oldDx[n] = dx[n];
+            oldDy[n] = dy[n];
+            dx[n] = 0;
+            dy[n] = 0;
+        }
+        if (data.threeDimensional) {
+            for (int n = from; n < to; n++) {
+                data.oldDz[n] = data.dz[n];
+                data.dz[n] = 0;
+            }
+        }
+
+        // Repulsion
+        if (bulkRepulsion != null) {
+            bulkRepulsion.apply(data, from, to);
+        } else if (exactRows) {
+            ExactRepulsion.applyRows(data, from, to, repulsion, asleep);
+        } else {
+            double[][] buffer = deltaBuffers.acquire();
+            try {
+                if (!barnesHutOptimize) {
+                    ExactRepulsion.apply(data, from, to, repulsion, buffer[0], buffer[1]);
+                } else if (octree != null) {
+                    int[] stack = new int[octree.getStackSize()];
+                    for (int n = from; n < to; n++) {
+                        if (asleep == null || !asleep[n]) {
+                            octree.applyForce(n, repulsion, barnesHutTheta, stack, buffer);
+                        }
+                    }
+                } else {
+                    int[] stack = new int[tree.getStackSize()];
+                    for (int n = from; n < to; n++) {
+                        if (asleep == null || !asleep[n]) {
+                            tree.applyForce(n, repulsion, barnesHutTheta, stack, buffer[0], buffer[1]);
+                        }
+                    }
+                }
+            } finally {
+                deltaBuffers.release(buffer);
+            }
+        }
+        if (additionalRepulsion != null) {
+            additionalRepulsion.apply(data, from, to);
+        }
+
+        // Gravity
+        float[] z = data.threeDimensional ? data.z : null;
+        for (int n = from; n < to; n++) {
+            if (asleep != null && asleep[n]) {
+                continue;
+            }
+            if (z != null) {
+                double distance = Math.sqrt((double) x[n] * x[n] + (double) y[n] * y[n] + (double) z[n] * z[n]);
+                double factor = gravityForce.factor(distance, mass[n], gravity);
+                dx[n] -= x[n] * factor;
+                dy[n] -= y[n] * factor;
+                data.dz[n] -= z[n] * factor;
+                continue;
+            }
+            double distance = Math.sqrt((double) x[n] * x[n] + (double) y[n] * y[n]);
+            double factor = gravityForce.factor(distance, mass[n], gravity);
+            dx[n] -= x[n] * factor;
+            dy[n] -= y[n] * factor;
+        }
+    }
+}
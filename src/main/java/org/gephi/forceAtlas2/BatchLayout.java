@@ -0,0 +1,184 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Graph;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lays out many small graphs, one graph per thread.
+ * <p>
+ * Each graph runs single threaded in array layout mode, the executor's threads work on different graphs.
+ * A graph takes the columns, node index map and array engine, trees and attraction arrays included, that a
+ * previous graph of the same stream gave back, so there are never more of them than graphs running at the same
+ * time. They are dropped when the stream is exhausted or closed. Graphs are read from the stream
+ * as results are consumed, at most a few per thread ahead, and results come in completion order.
+ */
+public class BatchLayout {
+
+    private final StopCriteria criteria;
+    private ExecutorService executor;
+    private Consumer<ForceAtlas2> settings;
+    private int parallelism;
+
+    public BatchLayout(StopCriteria criteria) {
+        this.criteria = criteria;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Lays out the graphs, returning them as they complete. Closing the returned stream doesn't cancel the
+     * graphs already started.
+     */
+    public Stream<BatchResult> layout(Stream<Graph> graphs) {
+        ExecutorService pool = getExecutor() != null ? getExecutor() : ForceAtlas2.getSharedExecutor();
+        ResultIterator results = new ResultIterator(pool, graphs.iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+                .onClose(results::close);
+    }
+
+    private BatchResult layout(Graph graph, ExecutorService pool, ResultIterator results) {
+        ForceAtlas2 layout = new ForceAtlas2();
+        layout.setGraph(graph);
+        layout.setArrayLayout(true);
+        layout.setStrengthsLogLevel(StrengthsLogLevel.OFF);
+        if (settings != null) {
+            settings.accept(layout);
+        }
+        // One thread per graph. A fork-join pool also helps build the Barnes Hut tree, other executors leave it to
+        // the calling thread.
+        layout.setThreadsCount(1);
+        layout.setExecutor(pool);
+        LayoutScratch scratch = results.acquire();
+        try {
+            layout.setScratch(scratch);
+            return new BatchResult(graph, layout.run(criteria));
+        } finally {
+            results.release(scratch);
+        }
+    }
+
+    private class ResultIterator implements Iterator<BatchResult> {
+
+        private final ExecutorService pool;
+        private final Iterator<Graph> graphs;
+        private final CompletionService<BatchResult> completion;
+        private int pending;
+        // The scratches given back by the graphs, none once the stream is closed
+        private final ArrayDeque<LayoutScratch> scratches = new ArrayDeque<>();
+        private boolean closed;
+
+        ResultIterator(ExecutorService pool, Iterator<Graph> graphs) {
+            this.pool = pool;
+            this.graphs = graphs;
+            this.completion = new ExecutorCompletionService<>(pool);
+        }
+
+        // Keeps a few graphs per thread queued, so no thread waits for the stream
+        private void fill() {
+            while (pending < 4 * getParallelism() && graphs.hasNext()) {
+                Graph graph = graphs.next();
+                completion.submit(() -> layout(graph, pool, this));
+                pending++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            if (pending > 0) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        LayoutScratch acquire() {
+            synchronized (scratches) {
+                LayoutScratch scratch = scratches.poll();
+                return scratch != null ? scratch : new LayoutScratch();
+            }
+        }
+
+        void release(LayoutScratch scratch) {
+            synchronized (scratches) {
+                if (!closed) {
+                    scratches.push(scratch);
+                }
+            }
+        }
+
+        // The graphs still running drop their scratches when they end
+        void close() {
+            synchronized (scratches) {
+                closed = true;
+                scratches.clear();
+            }
+        }
+
+        @Override
+        public BatchResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Future<BatchResult> future = completion.take();
+                pending--;
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            }
+        }
+    }
+
+    public StopCriteria getCriteria() {
+        return criteria;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the graphs on the given executor, {@link ForceAtlas2#getSharedExecutor()} when <code>null</code>.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Consumer<ForceAtlas2> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Applied to the layout of each graph after its default settings, before it runs.
+     */
+    public void setSettings(Consumer<ForceAtlas2> settings) {
+        this.settings = settings;
+    }
+
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of threads of the executor, sets how many graphs are read ahead.
+     */
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+}
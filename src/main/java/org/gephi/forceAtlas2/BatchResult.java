@@ -0,0 +1,25 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Graph;
+
+/**
+ * A graph laid out by {@link BatchLayout}, its nodes hold the final positions.
+ */
+public class BatchResult {
+
+    private final Graph graph;
+    private final RunResult result;
+
+    public BatchResult(Graph graph, RunResult result) {
+        this.graph = graph;
+        this.result = result;
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public RunResult getResult() {
+        return result;
+    }
+}
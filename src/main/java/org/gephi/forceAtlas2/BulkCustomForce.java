@@ -0,0 +1,29 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Custom force computed over the columns of a {@link LayoutData}, applied after repulsion and attraction.
+ * <p>
+ * A force that isn't parallelizable is applied once per iteration on all the nodes, and may add to any delta. A
+ * parallelizable force is applied on ranges of nodes from several threads at once, and a range must only add to
+ * the deltas of its own nodes.
+ */
+public interface BulkCustomForce {
+
+    /**
+     * Whether the force can be applied on ranges of nodes concurrently.
+     */
+    default boolean isParallelizable() {
+        return false;
+    }
+
+    /**
+     * Called in a single thread before the ranges of an iteration.
+     */
+    default void prepare(LayoutData data) {
+    }
+
+    /**
+     * Adds the force on the nodes <code>[from, to)</code> to their deltas.
+     */
+    void apply(LayoutData data, int from, int to);
+}
@@ -0,0 +1,24 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Repulsion computed over the columns of a {@link LayoutData}, for a range of nodes at a time.
+ * <p>
+ * The layout calls {@link #prepare(LayoutData)} once per iteration, then {@link #apply(LayoutData, int, int)} on
+ * ranges of nodes from several threads at once. A range must only add to the deltas of its own nodes; it may
+ * read every position, mass and size.
+ *
+ * @see RepulsionForceProvider#getBulkRepulsionForce(boolean, double)
+ */
+public interface BulkRepulsionForce {
+
+    /**
+     * Called in a single thread before the ranges of an iteration, for instance to build a tree on the positions.
+     */
+    default void prepare(LayoutData data) {
+    }
+
+    /**
+     * Adds the repulsion on the nodes <code>[from, to)</code> to their deltas.
+     */
+    void apply(LayoutData data, int from, int to);
+}
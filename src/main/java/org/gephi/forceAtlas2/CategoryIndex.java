@@ -0,0 +1,84 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Dense ids of the node categories of a graph, in the order of their first node. The <code>null</code> category
+ * gets an id like the others.
+ * <p>
+ * Built once per layout, so the {@link Region}s count categories in primitive arrays instead of hashing strings.
+ * The layout checks with {@link #matches(Node[])} that the nodes are still the same before reusing it.
+ */
+public final class CategoryIndex {
+
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final List<String> categories = new ArrayList<>();
+    private final Node[] nodes;
+    private final int[] nodeCategories;
+
+    /**
+     * Interns the categories of <code>nodes</code>.
+     */
+    public CategoryIndex(Node[] nodes) {
+        this.nodes = nodes.clone();
+        nodeCategories = new int[nodes.length];
+        for (int n = 0; n < nodes.length; n++) {
+            String category = nodes[n].getCategory();
+            Integer id = ids.get(category);
+            if (id == null) {
+                id = categories.size();
+                ids.put(category, id);
+                categories.add(category);
+            }
+            nodeCategories[n] = id;
+        }
+    }
+
+    /**
+     * Returns whether <code>nodes</code> are the nodes the index was built from, in the same order and with the
+     * same categories.
+     */
+    public boolean matches(Node[] nodes) {
+        if (nodes.length != this.nodes.length) {
+            return false;
+        }
+        for (int n = 0; n < nodes.length; n++) {
+            if (nodes[n] != this.nodes[n]
+                    || !Objects.equals(nodes[n].getCategory(), categories.get(nodeCategories[n]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of a category, or -1 if no node has it.
+     */
+    public int getId(String category) {
+        Integer id = ids.get(category);
+        return id != null ? id : -1;
+    }
+
+    public String getCategory(int id) {
+        return categories.get(id);
+    }
+
+    /**
+     * Returns the number of categories, the ids go from 0 to this count excluded.
+     */
+    public int size() {
+        return categories.size();
+    }
+
+    /**
+     * Returns the category id of each node, in the order of the nodes the index was built from.
+     */
+    int[] getNodeCategories() {
+        return nodeCategories;
+    }
+}
@@ -0,0 +1,357 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout of each connected component of a graph on its own, then packed side by side.
+ * <p>
+ * The components come from a union-find over the edges. Each one runs the array engine on a copy of its nodes,
+ * with a share of the threads matching its share of the nodes: the components worth more than one thread run
+ * one after the other from the calling thread, while the others run single threaded on the pool, several at a
+ * time. The engines of the latter run all their work in their own task, never waiting on other tasks of the
+ * pool. Every component stops on the criteria by itself, the time budget is shared. The bounding boxes of the
+ * components are then packed in shelves, the tallest first, in a square-ish area, and the components moved
+ * there as a whole. The components holding fixed nodes stay in place, the others are packed beside them.
+ */
+class ComponentLayout {
+
+    private final ForceAtlas2 layout;
+    private final Graph graph;
+    private final ExecutorService pool;
+    private final int threadCount;
+
+    private int iterations;
+    private boolean converged;
+    private boolean outOfTime;
+    private double totalSwinging;
+    private double totalEffectiveTraction;
+
+    ComponentLayout(ForceAtlas2 layout, Graph graph, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.graph = graph;
+        this.pool = pool;
+        this.threadCount = threadCount;
+    }
+
+    RunResult run(StopCriteria criteria) {
+        long start = System.nanoTime();
+        Long budget = criteria.getTimeBudgetMillis();
+        long deadline = budget != null ? start + budget * 1000000L : Long.MAX_VALUE;
+        Node[] nodes = graph.getNodes();
+        LayoutData data = LayoutData.fromGraph(graph);
+        int nodeCount = data.nodeCount;
+
+        // Components, as ranges of members, the largest first
+        int[] root = components(data);
+        int[] componentOf = new int[nodeCount];
+        int componentCount = 0;
+        int[] rootComponent = new int[nodeCount];
+        Arrays.fill(rootComponent, -1);
+        for (int n = 0; n < nodeCount; n++) {
+            if (rootComponent[root[n]] < 0) {
+                rootComponent[root[n]] = componentCount++;
+            }
+            componentOf[n] = rootComponent[root[n]];
+        }
+        int[] memberStart = new int[componentCount + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            memberStart[componentOf[n] + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            memberStart[c + 1] += memberStart[c];
+        }
+        int[] members = new int[nodeCount];
+        int[] next = Arrays.copyOf(memberStart, componentCount);
+        for (int n = 0; n < nodeCount; n++) {
+            members[next[componentOf[n]]++] = n;
+        }
+        int[] edgeStart = new int[componentCount + 1];
+        for (int e = 0; e < data.edgeCount; e++) {
+            edgeStart[componentOf[data.edgeSource[e]] + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            edgeStart[c + 1] += edgeStart[c];
+        }
+        int[] edges = new int[data.edgeCount];
+        next = Arrays.copyOf(edgeStart, componentCount);
+        for (int e = 0; e < data.edgeCount; e++) {
+            edges[next[componentOf[data.edgeSource[e]]]++] = e;
+        }
+        Integer[] bySize = new Integer[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            bySize[c] = c;
+        }
+        Arrays.sort(bySize, Comparator.comparingInt(c -> memberStart[c] - memberStart[c + 1]));
+
+        // Layout: the components worth several threads in turn, the others on the pool meanwhile
+        converged = true;
+        List<Future<?>> small = new ArrayList<>();
+        List<Integer> large = new ArrayList<>();
+        for (int c : bySize) {
+            int size = memberStart[c + 1] - memberStart[c];
+            int threads = (int) Math.min(threadCount, Math.round((double) threadCount * size / nodeCount));
+            if (threads > 1) {
+                large.add(c);
+            } else if (size > 1) {
+                small.add(pool.submit(() -> layoutComponent(data, members, memberStart[c], memberStart[c + 1],
+                        edges, edgeStart[c], edgeStart[c + 1], 1, criteria, deadline, CallerRuns.INSTANCE)));
+            }
+        }
+        for (int c : large) {
+            int size = memberStart[c + 1] - memberStart[c];
+            int threads = (int) Math.min(threadCount, Math.round((double) threadCount * size / nodeCount));
+            layoutComponent(data, members, memberStart[c], memberStart[c + 1], edges, edgeStart[c],
+                    edgeStart[c + 1], threads, criteria, deadline, pool);
+        }
+        for (Future<?> future : small) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            }
+        }
+
+        pack(data, members, memberStart, bySize);
+        for (int n = 0; n < nodeCount; n++) {
+            nodes[n].setX(data.x[n]);
+            nodes[n].setY(data.y[n]);
+        }
+
+        RunResult result = new RunResult();
+        result.setReason(outOfTime ? StopReason.TIME_BUDGET : converged && iterations > 0 ? StopReason.CONVERGED
+                : StopReason.MAX_ITERATIONS);
+        result.setIterations(iterations);
+        result.setElapsedMillis((System.nanoTime() - start) / 1000000L);
+        result.setSwinging(nodeCount > 0 ? totalSwinging / nodeCount : 0);
+        result.setTraction(nodeCount > 0 ? totalEffectiveTraction / nodeCount : 0);
+        return result;
+    }
+
+    // Union-find over the edges, with path halving and union by size, returns the root of each node
+    private static int[] components(LayoutData data) {
+        int nodeCount = data.nodeCount;
+        int[] parent = new int[nodeCount];
+        int[] size = new int[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            parent[n] = n;
+            size[n] = 1;
+        }
+        for (int e = 0; e < data.edgeCount; e++) {
+            int a = find(parent, data.edgeSource[e]);
+            int b = find(parent, data.edgeTarget[e]);
+            if (a != b) {
+                if (size[a] < size[b]) {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                parent[b] = a;
+                size[a] += size[b];
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            parent[n] = find(parent, n);
+        }
+        return parent;
+    }
+
+    private static int find(int[] parent, int n) {
+        while (parent[n] != n) {
+            parent[n] = parent[parent[n]];
+            n = parent[n];
+        }
+        return n;
+    }
+
+    private void layoutComponent(LayoutData data, int[] members, int from, int to, int[] edges, int edgeFrom,
+                                 int edgeTo, int threads, StopCriteria criteria, long deadline,
+                                 ExecutorService executor) {
+        int size = to - from;
+        LayoutData local = new LayoutData(size, edgeTo - edgeFrom);
+        for (int i = 0; i < size; i++) {
+            int n = members[from + i];
+            local.x[i] = data.x[n];
+            local.y[i] = data.y[n];
+            local.dx[i] = 0;
+            local.dy[i] = 0;
+            local.oldDx[i] = 0;
+            local.oldDy[i] = 0;
+            local.mass[i] = data.mass[n];
+            local.size[i] = data.size[n];
+            local.fixed[i] = data.fixed[n];
+        }
+        // Local indices, by binary search in the members, sorted by global index
+        for (int k = edgeFrom; k < edgeTo; k++) {
+            int e = edges[k];
+            local.edgeSource[k - edgeFrom] = Arrays.binarySearch(members, from, to, data.edgeSource[e]) - from;
+            local.edgeTarget[k - edgeFrom] = Arrays.binarySearch(members, from, to, data.edgeTarget[e]) - from;
+            local.edgeWeight[k - edgeFrom] = data.edgeWeight[e];
+        }
+
+        ArrayLayoutEngine engine = new ArrayLayoutEngine(layout, local, null, null, executor, threads);
+        int done = 0;
+        boolean stopped = false;
+        boolean timeUp = false;
+        while (!stopped) {
+            if (criteria.getMaxIterations() != null && done >= criteria.getMaxIterations()) {
+                break;
+            }
+            engine.goAlgo();
+            done++;
+            if (layout.isConverged(criteria, engine.getTotalSwinging() / size,
+                    engine.getTotalEffectiveTraction() / size)) {
+                stopped = true;
+            } else if (System.nanoTime() - deadline >= 0) {
+                timeUp = true;
+                break;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int n = members[from + i];
+            data.x[n] = local.x[i];
+            data.y[n] = local.y[i];
+        }
+        synchronized (this) {
+            iterations = Math.max(iterations, done);
+            converged &= stopped;
+            outOfTime |= timeUp;
+            totalSwinging += engine.getTotalSwinging();
+            totalEffectiveTraction += engine.getTotalEffectiveTraction();
+        }
+    }
+
+    /**
+     * Moves the components into shelves: the components go, the tallest first, left to right in rows as wide as
+     * the square root of their total area, a row being as tall as its first box. The components with a fixed node
+     * don't move, the shelves then start on the right of their bounding box instead of around the origin.
+     */
+    private static void pack(LayoutData data, int[] members, int[] memberStart, Integer[] bySize) {
+        int componentCount = bySize.length;
+        if (componentCount == 0) {
+            return;
+        }
+        double[] minX = new double[componentCount];
+        double[] minY = new double[componentCount];
+        double[] width = new double[componentCount];
+        double[] height = new double[componentCount];
+        boolean[] anchored = new boolean[componentCount];
+        double anchoredMaxX = Double.NEGATIVE_INFINITY;
+        double anchoredMinY = Double.POSITIVE_INFINITY;
+        double maxSize = 0;
+        double area = 0;
+        for (int c = 0; c < componentCount; c++) {
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY;
+            double y1 = Double.NEGATIVE_INFINITY;
+            for (int i = memberStart[c]; i < memberStart[c + 1]; i++) {
+                int n = members[i];
+                x0 = Math.min(x0, data.x[n] - data.size[n]);
+                y0 = Math.min(y0, data.y[n] - data.size[n]);
+                x1 = Math.max(x1, data.x[n] + data.size[n]);
+                y1 = Math.max(y1, data.y[n] + data.size[n]);
+                maxSize = Math.max(maxSize, data.size[n]);
+                anchored[c] |= data.fixed[n];
+            }
+            minX[c] = x0;
+            minY[c] = y0;
+            width[c] = x1 - x0;
+            height[c] = y1 - y0;
+            if (anchored[c]) {
+                anchoredMaxX = Math.max(anchoredMaxX, x1);
+                anchoredMinY = Math.min(anchoredMinY, y0);
+            }
+        }
+        Integer[] byHeight = Arrays.stream(bySize).filter(c -> !anchored[c])
+                .sorted(Comparator.comparingDouble(c -> -height[c])).toArray(Integer[]::new);
+        if (byHeight.length == 0) {
+            return;
+        }
+        // The gap between boxes, at least 1 for nodes without a size
+        double gap = Math.max(1, 2 * maxSize);
+        for (int c : byHeight) {
+            area += (width[c] + gap) * (height[c] + gap);
+        }
+        double rowWidth = Math.max(Math.sqrt(area), width[byHeight[0]] + gap);
+
+        double cursorX = 0;
+        double cursorY = 0;
+        double shelfHeight = 0;
+        double packedWidth = 0;
+        double[] offsetX = new double[componentCount];
+        double[] offsetY = new double[componentCount];
+        for (int c : byHeight) {
+            if (cursorX > 0 && cursorX + width[c] > rowWidth) {
+                cursorY += shelfHeight + gap;
+                cursorX = 0;
+                shelfHeight = 0;
+            }
+            offsetX[c] = cursorX - minX[c];
+            offsetY[c] = cursorY - minY[c];
+            cursorX += width[c] + gap;
+            shelfHeight = Math.max(shelfHeight, height[c]);
+            packedWidth = Math.max(packedWidth, cursorX - gap);
+        }
+        // The packing is centered on the origin, or starts next to the components that stay
+        double originX = -packedWidth / 2;
+        double originY = -(cursorY + shelfHeight) / 2;
+        if (anchoredMaxX > Double.NEGATIVE_INFINITY) {
+            originX = anchoredMaxX + gap;
+            originY = anchoredMinY;
+        }
+        for (int c : byHeight) {
+            for (int i = memberStart[c]; i < memberStart[c + 1]; i++) {
+                int n = members[i];
+                data.x[n] = (float) (data.x[n] + offsetX[c] + originX);
+                data.y[n] = (float) (data.y[n] + offsetY[c] + originY);
+            }
+        }
+    }
+
+    /**
+     * Runs every task in the thread submitting it, for the engines running inside a task of the pool.
+     */
+    private static final class CallerRuns extends AbstractExecutorService {
+
+        static final CallerRuns INSTANCE = new CallerRuns();
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.gephi.forceAtlas2;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a per node phase in ranges balanced on the cost of the nodes at the previous run.
+ * <p>
+ * Each leaf range measures its own run time and spreads it over its nodes, which gives the cost
+ * estimates of the next run. On a {@link ForkJoinPool} the ranges are split recursively at the middle of
+ * their cost until they are down to <code>1 / taskCount</code> of the total, idle workers steal the halves
+ * that are left. Other executors get <code>taskCount</code> ranges of the same estimated cost.
+ */
+class CostBalancedRanges {
+
+    // Ranges aren't split below this number of nodes
+    private static final int MIN_RANGE = 16;
+
+    private int count;
+    private double[] cost = new double[0];
+    private double[] prefix = new double[1];
+
+    /**
+     * Starts with the same cost for every node.
+     */
+    CostBalancedRanges(int count) {
+        this(count, false);
+    }
+
+    /**
+     * @param triangular whether to start with the cost of node <code>n</code> growing as <code>n</code>, as when
+     *                   each node is paired with the lower indices
+     */
+    CostBalancedRanges(int count, boolean triangular) {
+        reset(count, triangular);
+    }
+
+    /**
+     * Starts over on <code>count</code> nodes, as the constructor does, reusing the arrays when they are long
+     * enough.
+     */
+    void reset(int count, boolean triangular) {
+        this.count = count;
+        if (cost.length < count) {
+            cost = new double[count];
+            prefix = new double[count + 1];
+        }
+        for (int n = 0; n < count; n++) {
+            cost[n] = triangular ? n + 1 : 1;
+        }
+    }
+
+    void run(ExecutorService pool, int taskCount, ParallelRanges.RangeTask task) {
+        if (taskCount == 1) {
+            // Nothing to balance, run in the calling thread
+            task.create(0, count).run();
+            return;
+        }
+        for (int n = 0; n < count; n++) {
+            prefix[n + 1] = prefix[n] + cost[n];
+        }
+        if (pool instanceof ForkJoinPool) {
+            double grain = prefix[count] / taskCount;
+            try {
+                ((ForkJoinPool) pool).invoke(new SplitTask(0, count, grain, task));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            }
+        } else {
+            int[] bounds = new int[taskCount + 1];
+            for (int t = 1; t < taskCount; t++) {
+                bounds[t] = Math.max(bounds[t - 1], split(0, count, prefix[count] * t / taskCount));
+            }
+            bounds[taskCount] = count;
+            ParallelRanges.run(pool, bounds, (from, to) -> () -> runMeasured(from, to, task));
+        }
+    }
+
+    // Returns the first index of [from, to] whose cost prefix reaches the target
+    private int split(int from, int to, double target) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (prefix[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void runMeasured(int from, int to, ParallelRanges.RangeTask task) {
+        if (from >= to) {
+            return;
+        }
+        long start = System.nanoTime();
+        task.create(from, to).run();
+        // Never let a cost drop to 0, so the ranges can always be split
+        double nodeCost = Math.max(1, System.nanoTime() - start) / (double) (to - from);
+        for (int n = from; n < to; n++) {
+            cost[n] = nodeCost;
+        }
+    }
+
+    private class SplitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final double grain;
+        private final ParallelRanges.RangeTask task;
+
+        SplitTask(int from, int to, double grain, ParallelRanges.RangeTask task) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MIN_RANGE || prefix[to] - prefix[from] <= grain) {
+                runMeasured(from, to, task);
+                return;
+            }
+            int middle = split(from + 1, to - 1, (prefix[from] + prefix[to]) / 2);
+            invokeAll(new SplitTask(from, middle, grain, task), new SplitTask(middle, to, grain, task));
+        }
+    }
+}
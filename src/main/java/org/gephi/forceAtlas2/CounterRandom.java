@@ -0,0 +1,33 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Counter based random numbers: a draw is a hash of a key and a counter, so the threads need no shared generator
+ * and the draws don't depend on the way the work is split between them. The hash is the finalizer of SplitMix64.
+ */
+final class CounterRandom {
+
+    static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private CounterRandom() {
+    }
+
+    /**
+     * The draw of rank <code>counter</code> for a key, 64 uniform bits.
+     */
+    static long draw(long key, long counter) {
+        return mix(key + GAMMA * (counter + 1));
+    }
+
+    /**
+     * The draw of rank <code>counter</code> for a key, uniform in <code>[0, 1)</code>.
+     */
+    static double uniform(long key, long counter) {
+        return (draw(key, counter) >>> 11) * 0x1.0p-53;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
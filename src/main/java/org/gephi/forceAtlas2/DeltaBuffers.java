@@ -0,0 +1,108 @@
+package org.gephi.forceAtlas2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delta accumulators for forces that shift nodes owned by other tasks.
+ * <p>
+ * A running task {@link #acquire() holds} its own <code>dx</code>/<code>dy</code> columns, and <code>dz</code> in
+ * 3D, and gives them back when it ends, so the force phase only writes task-confined memory and there are never
+ * more buffers than tasks running at the same time. The buffers are summed into the layout deltas once per
+ * iteration by {@link #reduceInto(double[], double[], double[], int, int)}, which also clears them for the next
+ * iteration. They belong to the layout, {@link #clear()} lets them go.
+ */
+class DeltaBuffers {
+
+    private int nodeCount;
+    private int dimensions;
+    private final List<double[][]> buffers = new ArrayList<>();
+    private final ArrayDeque<double[][]> free = new ArrayDeque<>();
+
+    DeltaBuffers(int nodeCount, boolean threeDimensional) {
+        this.nodeCount = nodeCount;
+        this.dimensions = threeDimensional ? 3 : 2;
+    }
+
+    /**
+     * Returns a <code>{dx, dy}</code> buffer, <code>{dx, dy, dz}</code> in 3D, that no other task holds until it
+     * is {@link #release(double[][]) released}.
+     */
+    double[][] acquire() {
+        synchronized (buffers) {
+            double[][] buffer = free.poll();
+            if (buffer == null) {
+                buffer = new double[dimensions][nodeCount];
+                buffers.add(buffer);
+            }
+            return buffer;
+        }
+    }
+
+    void release(double[][] buffer) {
+        synchronized (buffers) {
+            free.push(buffer);
+        }
+    }
+
+    /**
+     * Sizes the buffers for another graph. They are kept, cleared, when they are long enough and of the same
+     * dimension.
+     */
+    void reset(int nodeCount, boolean threeDimensional) {
+        synchronized (buffers) {
+            int dimensions = threeDimensional ? 3 : 2;
+            if (dimensions != this.dimensions || !buffers.isEmpty() && buffers.get(0)[0].length < nodeCount) {
+                buffers.clear();
+                free.clear();
+            }
+            this.nodeCount = nodeCount;
+            this.dimensions = dimensions;
+            for (double[][] buffer : buffers) {
+                for (double[] column : buffer) {
+                    Arrays.fill(column, 0, nodeCount, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the buffers, the next {@link #acquire()} allocates again.
+     */
+    void clear() {
+        synchronized (buffers) {
+            buffers.clear();
+            free.clear();
+        }
+    }
+
+    /**
+     * Adds the buffered deltas of nodes <code>[from, to)</code> to <code>dx</code>/<code>dy</code>, and
+     * <code>dz</code> in 3D, and resets them. Must not run concurrently with the force phase.
+     */
+    void reduceInto(double[] dx, double[] dy, double[] dz, int from, int to) {
+        double[][][] all;
+        synchronized (buffers) {
+            all = buffers.toArray(new double[0][][]);
+        }
+        for (double[][] buffer : all) {
+            double[] bufferDx = buffer[0];
+            double[] bufferDy = buffer[1];
+            for (int n = from; n < to; n++) {
+                dx[n] += bufferDx[n];
+                dy[n] += bufferDy[n];
+                bufferDx[n] = 0;
+                bufferDy[n] = 0;
+            }
+            if (dimensions == 3) {
+                double[] bufferDz = buffer[2];
+                for (int n = from; n < to; n++) {
+                    dz[n] += bufferDz[n];
+                    bufferDz[n] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.forceAtlas2.ForceFactory.RepulsionKernel;
+
+/**
+ * All-pairs repulsion over the columns of a {@link LayoutData}.
+ * <p>
+ * Rows <code>[from, to)</code> are paired with every lower node index, so each pair is visited once. The pairs
+ * are walked by tiles: a block of rows sweeps a block of columns before moving to the next one, so the columns
+ * stay in cache for all the rows of the block. The inner loops are plain counted loops over primitive arrays,
+ * without calls, which leaves the JIT free to unroll and vectorize them. The work of row <code>n1</code>
+ * grows with <code>n1</code>, see {@link CostBalancedRanges#CostBalancedRanges(int, boolean)}.
+ */
+final class ExactRepulsion {
+
+    private static final int ROW_BLOCK = 64;
+    private static final int COLUMN_BLOCK = 512;
+
+    private ExactRepulsion() {
+    }
+
+    /**
+     * Adds the repulsion of the pairs <code>(n1, n2)</code> with <code>from &lt;= n1 &lt; to</code> and
+     * <code>n2 &lt; n1</code>: the share of <code>n1</code> goes to the deltas of the data, the share of
+     * <code>n2</code> to the given buffers.
+     */
+    static void apply(LayoutData data, int from, int to, RepulsionKernel repulsion, double[] bufferDx,
+                      double[] bufferDy) {
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        double[] rowDx = new double[ROW_BLOCK];
+        double[] rowDy = new double[ROW_BLOCK];
+        for (int i0 = from; i0 < to; i0 += ROW_BLOCK) {
+            int i1 = Math.min(to, i0 + ROW_BLOCK);
+            for (int j0 = 0; j0 < i1 - 1; j0 += COLUMN_BLOCK) {
+                int j1 = Math.min(i1 - 1, j0 + COLUMN_BLOCK);
+                for (int n1 = i0; n1 < i1; n1++) {
+                    int end = Math.min(j1, n1);
+                    if (end > j0) {
+                        if (repulsion.isAntiCollision()) {
+                            antiCollisionRow(data, n1, j0, end, repulsion, rowDx, rowDy, n1 - i0, bufferDx, bufferDy);
+                        } else {
+                            row(data, n1, j0, end, repulsion.getCoefficient(), rowDx, rowDy, n1 - i0, bufferDx, bufferDy);
+                        }
+                    }
+                }
+            }
+            for (int n1 = i0; n1 < i1; n1++) {
+                dx[n1] += rowDx[n1 - i0];
+                dy[n1] += rowDy[n1 - i0];
+                rowDx[n1 - i0] = 0;
+                rowDy[n1 - i0] = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds the repulsion of every other node on the awake nodes of <code>[from, to)</code>, to their deltas only.
+     * Visits each pair from both sides, which pays off when most nodes are asleep, and is how the 3D layout
+     * runs exact repulsion.
+     *
+     * @param asleep the sleeping nodes, or <code>null</code> when all nodes are awake
+     */
+    static void applyRows(LayoutData data, int from, int to, RepulsionKernel repulsion, boolean[] asleep) {
+        if (data.threeDimensional) {
+            rows3d(data, from, to, repulsion, asleep);
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        int nodeCount = data.nodeCount;
+        boolean antiCollision = repulsion.isAntiCollision();
+        double coefficient = repulsion.getCoefficient();
+        for (int n1 = from; n1 < to; n1++) {
+            if (asleep != null && asleep[n1]) {
+                continue;
+            }
+            double x1 = x[n1];
+            double y1 = y[n1];
+            double m1 = mass[n1];
+            double shiftX = 0;
+            double shiftY = 0;
+            for (int n2 = 0; n2 < nodeCount; n2++) {
+                double xDist = x1 - x[n2];
+                double yDist = y1 - y[n2];
+                double factor;
+                if (antiCollision) {
+                    double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                    factor = n2 != n1 ? repulsion.nodeFactor(distance, m1, mass[n2], size[n1], size[n2]) : 0;
+                } else {
+                    double distanceSquared = xDist * xDist + yDist * yDist;
+                    factor = distanceSquared > 0 ? coefficient * m1 * mass[n2] / distanceSquared : 0;
+                }
+                shiftX += xDist * factor;
+                shiftY += yDist * factor;
+            }
+            dx[n1] += shiftX;
+            dy[n1] += shiftY;
+        }
+    }
+
+    private static void rows3d(LayoutData data, int from, int to, RepulsionKernel repulsion, boolean[] asleep) {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] z = data.z;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        int nodeCount = data.nodeCount;
+        for (int n1 = from; n1 < to; n1++) {
+            if (asleep != null && asleep[n1]) {
+                continue;
+            }
+            double x1 = x[n1];
+            double y1 = y[n1];
+            double z1 = z[n1];
+            double m1 = mass[n1];
+            double shiftX = 0;
+            double shiftY = 0;
+            double shiftZ = 0;
+            for (int n2 = 0; n2 < nodeCount; n2++) {
+                if (n2 != n1) {
+                    double xDist = x1 - x[n2];
+                    double yDist = y1 - y[n2];
+                    double zDist = z1 - z[n2];
+                    double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                    double factor = repulsion.nodeFactor(distance, m1, mass[n2], size[n1], size[n2]);
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                    shiftZ += zDist * factor;
+                }
+            }
+            data.dx[n1] += shiftX;
+            data.dy[n1] += shiftY;
+            data.dz[n1] += shiftZ;
+        }
+    }
+
+    // Plain repulsion, coefficient * m1 * m2 / distance^2, needs no square root
+    private static void row(LayoutData data, int n1, int from, int to, double coefficient, double[] rowDx,
+                            double[] rowDy, int slot, double[] bufferDx, double[] bufferDy) {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        double x1 = x[n1];
+        double y1 = y[n1];
+        double cm1 = coefficient * mass[n1];
+        double shiftX = 0;
+        double shiftY = 0;
+        for (int n2 = from; n2 < to; n2++) {
+            double xDist = x1 - x[n2];
+            double yDist = y1 - y[n2];
+            double distanceSquared = xDist * xDist + yDist * yDist;
+            double factor = distanceSquared > 0 ? cm1 * mass[n2] / distanceSquared : 0;
+            double fx = xDist * factor;
+            double fy = yDist * factor;
+            shiftX += fx;
+            shiftY += fy;
+            bufferDx[n2] -= fx;
+            bufferDy[n2] -= fy;
+        }
+        rowDx[slot] += shiftX;
+        rowDy[slot] += shiftY;
+    }
+
+    // Repulsion with overlap prevention, the distance is taken between the borders of the nodes
+    private static void antiCollisionRow(LayoutData data, int n1, int from, int to, RepulsionKernel repulsion,
+                                         double[] rowDx, double[] rowDy, int slot, double[] bufferDx,
+                                         double[] bufferDy) {
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double x1 = x[n1];
+        double y1 = y[n1];
+        double m1 = mass[n1];
+        double s1 = size[n1];
+        double shiftX = 0;
+        double shiftY = 0;
+        for (int n2 = from; n2 < to; n2++) {
+            double xDist = x1 - x[n2];
+            double yDist = y1 - y[n2];
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+            double factor = repulsion.nodeFactor(distance, m1, mass[n2], s1, size[n2]);
+            double fx = xDist * factor;
+            double fy = yDist * factor;
+            shiftX += fx;
+            shiftY += fy;
+            bufferDx[n2] -= fx;
+            bufferDy[n2] -= fy;
+        }
+        rowDx[slot] += shiftX;
+        rowDy[slot] += shiftY;
+    }
+}
@@ -0,0 +1,580 @@
+package org.gephi.forceAtlas2;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Repulsion by the fast multipole method, in <code>O(n)</code> per iteration.
+ * <p>
+ * The repulsion <code>c * m1 * m2 / d</code> along the line between two nodes is, in complex numbers, the
+ * conjugate of <code>c * m1 * m2 / (z1 - z2)</code>: the field <code>sum m / (z - zj)</code> is expanded in
+ * powers of <code>1 / (z - center)</code> for the nodes of a cell (multipole), and in powers of
+ * <code>z - center</code> for the far nodes seen from a cell (local). The cells come from a quadtree of at most
+ * {@link #LEAF_SIZE} nodes per leaf, walked in pairs: two cells far enough from each other exchange their
+ * multipoles into their locals, neighbor leaves sum their node pairs directly, with overlap prevention when
+ * sizes are adjusted. The accuracy grows with {@link #setOrder(Integer) the number of terms} of the expansions.
+ * <p>
+ * {@link #prepare(LayoutData)} builds the tree and the expansions, the multipole to local transfers running in
+ * parallel on the executor. {@link #apply(LayoutData, int, int)} evaluates the locals and the direct pairs of its
+ * nodes.
+ */
+public class FmmRepulsion implements BulkRepulsionForce {
+
+    // Leaves are not split below this number of nodes
+    private static final int LEAF_SIZE = 16;
+    private static final int BITS = 16;
+    private static final int MAX_COORDINATE = (1 << BITS) - 1;
+    // Two cells are far when the sum of their radii is below this ratio of the distance of their centers
+    private static final double SEPARATION = 0.7;
+
+    private ForceFactory.RepulsionKernel kernel;
+    private int order = 8;
+    private ExecutorService executor;
+    private Integer threadsCount;
+    private double[][] binomial;
+
+    private long[] keys = new long[0];
+    private int[] sorted = new int[0];
+    private int[] codes = new int[0];
+    private int[] leafOf = new int[0];
+
+    private int cellCount;
+    private int[] cellStart = new int[0];
+    private int[] cellEnd = new int[0];
+    private int[] cellFirstChild = new int[0];
+    private int[] cellChildCount = new int[0];
+    private double[] cellX = new double[0];
+    private double[] cellY = new double[0];
+    private double[] cellRadius = new double[0];
+    // Expansion terms of each cell, real and imaginary parts interleaved
+    private double[] multipole = new double[0];
+    private double[] local = new double[0];
+
+    // Cells whose multipole goes into the local of each cell, and leaves summed directly with each leaf
+    private final PairList far = new PairList();
+    private final PairList near = new PairList();
+    private int[] farStart = new int[0];
+    private int[] farSource = new int[0];
+    private int[] nearStart = new int[0];
+    private int[] nearSource = new int[0];
+
+    public FmmRepulsion(boolean adjustBySize, double coefficient) {
+        setKernel(adjustBySize, coefficient);
+    }
+
+    void setKernel(boolean adjustBySize, double coefficient) {
+        kernel = ForceFactory.getForceFactory().buildRepulsionKernel(adjustBySize, coefficient);
+    }
+
+    public Integer getOrder() {
+        return order;
+    }
+
+    /**
+     * Number of terms of the expansions, the error of the far repulsion decreases about as
+     * <code>0.7^order</code>, the ratio of the radii of two far cells to their distance.
+     */
+    public void setOrder(Integer order) {
+        this.order = Math.max(1, order);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs on the given executor, {@link ForceAtlas2#getSharedExecutor()} when <code>null</code>.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Integer getThreadsCount() {
+        return threadsCount;
+    }
+
+    /**
+     * Number of ranges the multipole to local transfers are split in, the parallelism of the executor when
+     * <code>null</code>. At 1 they run in the calling thread.
+     */
+    public void setThreadsCount(Integer threadsCount) {
+        this.threadsCount = threadsCount;
+    }
+
+    @Override
+    public void prepare(LayoutData data) {
+        int nodeCount = data.nodeCount;
+        cellCount = 0;
+        if (nodeCount == 0) {
+            return;
+        }
+        if (binomial == null || binomial.length < 2 * order) {
+            binomial = binomials(2 * order);
+        }
+        ExecutorService pool = executor != null ? executor : ForceAtlas2.getSharedExecutor();
+        int threadCount = threadsCount != null ? Math.max(1, threadsCount)
+                : pool instanceof ForkJoinPool ? ((ForkJoinPool) pool).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+
+        build(data, pool, threadCount);
+        upward(data);
+        traverse();
+        int[] bounds = ParallelRanges.split(cellCount, Math.min(threadCount, cellCount));
+        ParallelRanges.run(pool, bounds, (from, to) -> () -> {
+            double[] inverse = new double[4 * order];
+            for (int cell = from; cell < to; cell++) {
+                multipoleToLocal(cell, inverse);
+            }
+        });
+        downward();
+    }
+
+    @Override
+    public void apply(LayoutData data, int from, int to) {
+        if (cellCount == 0) {
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double[] dx = data.dx;
+        double[] dy = data.dy;
+        double coefficient = kernel.getCoefficient();
+        int p = order;
+        for (int n = from; n < to; n++) {
+            int leaf = leafOf[n];
+            double nodeX = x[n];
+            double nodeY = y[n];
+            double nodeMass = mass[n];
+
+            // Far nodes, from the local expansion of the leaf, by Horner's rule
+            double wx = nodeX - cellX[leaf];
+            double wy = nodeY - cellY[leaf];
+            int base = 2 * p * leaf;
+            double re = local[base + 2 * (p - 1)];
+            double im = local[base + 2 * (p - 1) + 1];
+            for (int l = p - 2; l >= 0; l--) {
+                double r = re * wx - im * wy + local[base + 2 * l];
+                im = re * wy + im * wx + local[base + 2 * l + 1];
+                re = r;
+            }
+            double shiftX = coefficient * nodeMass * re;
+            double shiftY = -coefficient * nodeMass * im;
+
+            // Near nodes, one by one
+            for (int k = nearStart[leaf]; k < nearStart[leaf + 1]; k++) {
+                int source = nearSource[k];
+                for (int i = cellStart[source]; i < cellEnd[source]; i++) {
+                    int n2 = sorted[i];
+                    if (n2 != n) {
+                        double xDist = nodeX - x[n2];
+                        double yDist = nodeY - y[n2];
+                        double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                        double factor = kernel.nodeFactor(distance, nodeMass, mass[n2], size[n], size[n2]);
+                        shiftX += xDist * factor;
+                        shiftY += yDist * factor;
+                    }
+                }
+            }
+            dx[n] += shiftX;
+            dy[n] += shiftY;
+        }
+    }
+
+    private void ensureCapacity(int nodeCount) {
+        if (sorted.length < nodeCount) {
+            keys = new long[nodeCount];
+            sorted = new int[nodeCount];
+            codes = new int[nodeCount];
+            leafOf = new int[nodeCount];
+        }
+        // Every internal cell has at least two children, every leaf at least one node
+        int cells = 2 * nodeCount;
+        if (cellStart.length < cells) {
+            cellStart = new int[cells];
+            cellEnd = new int[cells];
+            cellFirstChild = new int[cells];
+            cellChildCount = new int[cells];
+            cellX = new double[cells];
+            cellY = new double[cells];
+            cellRadius = new double[cells];
+        }
+        if (multipole.length < 2 * order * cells) {
+            multipole = new double[2 * order * cells];
+            local = new double[2 * order * cells];
+        }
+    }
+
+    // Sorts the nodes by the Morton code of their position and splits them in cells
+    private void build(LayoutData data, ExecutorService pool, int threadCount) {
+        int nodeCount = data.nodeCount;
+        ensureCapacity(nodeCount);
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int n = 0; n < nodeCount; n++) {
+            minX = Math.min(minX, data.x[n]);
+            minY = Math.min(minY, data.y[n]);
+            maxX = Math.max(maxX, data.x[n]);
+            maxY = Math.max(maxY, data.y[n]);
+        }
+        double extent = Math.max((double) maxX - minX, (double) maxY - minY);
+        double scale = extent > 0 ? MAX_COORDINATE / extent : 0;
+        for (int n = 0; n < nodeCount; n++) {
+            int qx = Math.max(0, Math.min(MAX_COORDINATE, (int) ((data.x[n] - minX) * scale)));
+            int qy = Math.max(0, Math.min(MAX_COORDINATE, (int) ((data.y[n] - minY) * scale)));
+            int code = (spread(qx) << 1) | spread(qy);
+            // Unsigned code above the node index, so the keys stay positive
+            keys[n] = ((code & 0xFFFFFFFFL) << 31) | n;
+        }
+        if (threadCount > 1 && pool instanceof ForkJoinPool) {
+            // Sorting inside a task of the pool keeps the sort on it, instead of the common pool
+            ((ForkJoinPool) pool).invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(keys, 0, nodeCount)));
+        } else {
+            Arrays.sort(keys, 0, nodeCount);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            sorted[i] = (int) (keys[i] & Integer.MAX_VALUE);
+            codes[i] = (int) (keys[i] >>> 31);
+        }
+
+        cellCount = 1;
+        cellStart[0] = 0;
+        cellEnd[0] = nodeCount;
+        buildCell(0, 0);
+
+        // Expansion centers: the middle of the bounding box of the nodes of the cell, leaves first
+        for (int cell = cellCount - 1; cell >= 0; cell--) {
+            double cellMinX = Double.POSITIVE_INFINITY;
+            double cellMinY = Double.POSITIVE_INFINITY;
+            double cellMaxX = Double.NEGATIVE_INFINITY;
+            double cellMaxY = Double.NEGATIVE_INFINITY;
+            if (cellChildCount[cell] == 0) {
+                for (int i = cellStart[cell]; i < cellEnd[cell]; i++) {
+                    int n = sorted[i];
+                    leafOf[n] = cell;
+                    cellMinX = Math.min(cellMinX, data.x[n]);
+                    cellMinY = Math.min(cellMinY, data.y[n]);
+                    cellMaxX = Math.max(cellMaxX, data.x[n]);
+                    cellMaxY = Math.max(cellMaxY, data.y[n]);
+                }
+            } else {
+                for (int child = cellFirstChild[cell]; child < cellFirstChild[cell] + cellChildCount[cell]; child++) {
+                    cellMinX = Math.min(cellMinX, cellX[child] - cellRadius[child]);
+                    cellMinY = Math.min(cellMinY, cellY[child] - cellRadius[child]);
+                    cellMaxX = Math.max(cellMaxX, cellX[child] + cellRadius[child]);
+                    cellMaxY = Math.max(cellMaxY, cellY[child] + cellRadius[child]);
+                }
+            }
+            cellX[cell] = (cellMinX + cellMaxX) / 2;
+            cellY[cell] = (cellMinY + cellMaxY) / 2;
+            // Half the width, a bound of the distance of its nodes to the center in each direction
+            cellRadius[cell] = Math.max(cellMaxX - cellMinX, cellMaxY - cellMinY) / 2;
+        }
+        // The radius must bound the distance to the center, the half width only does per axis
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellRadius[cell] *= Math.sqrt(2);
+        }
+    }
+
+    private void buildCell(int cell, int level) {
+        int start = cellStart[cell];
+        int end = cellEnd[cell];
+        cellChildCount[cell] = 0;
+        if (end - start <= LEAF_SIZE) {
+            return;
+        }
+        // Skip the levels where all the nodes fall in the same quadrant
+        while (level < BITS && quadrant(codes[start], level) == quadrant(codes[end - 1], level)) {
+            level++;
+        }
+        if (level == BITS) {
+            // Nodes at the same position
+            return;
+        }
+        int first = cellCount;
+        int from = start;
+        for (int q = quadrant(codes[start], level); q < 4 && from < end; q++) {
+            int to = from;
+            while (to < end && quadrant(codes[to], level) == q) {
+                to++;
+            }
+            if (to > from) {
+                cellStart[cellCount] = from;
+                cellEnd[cellCount] = to;
+                cellCount++;
+            }
+            from = to;
+        }
+        cellFirstChild[cell] = first;
+        cellChildCount[cell] = cellCount - first;
+        for (int child = first; child < first + cellChildCount[cell]; child++) {
+            buildCell(child, level + 1);
+        }
+    }
+
+    private static int quadrant(int code, int level) {
+        return (code >>> (2 * (BITS - 1 - level))) & 3;
+    }
+
+    private static int spread(int v) {
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    // Multipoles, from the nodes of the leaves then from the children: a_k = sum m (z - center)^k
+    private void upward(LayoutData data) {
+        int p = order;
+        Arrays.fill(multipole, 0, 2 * p * cellCount, 0);
+        double[] powers = new double[2 * p];
+        for (int cell = cellCount - 1; cell >= 0; cell--) {
+            int base = 2 * p * cell;
+            if (cellChildCount[cell] == 0) {
+                for (int i = cellStart[cell]; i < cellEnd[cell]; i++) {
+                    int n = sorted[i];
+                    double zx = data.x[n] - cellX[cell];
+                    double zy = data.y[n] - cellY[cell];
+                    double re = data.mass[n];
+                    double im = 0;
+                    for (int k = 0; k < p; k++) {
+                        multipole[base + 2 * k] += re;
+                        multipole[base + 2 * k + 1] += im;
+                        double r = re * zx - im * zy;
+                        im = re * zy + im * zx;
+                        re = r;
+                    }
+                }
+            } else {
+                for (int child = cellFirstChild[cell]; child < cellFirstChild[cell] + cellChildCount[cell]; child++) {
+                    shiftMultipole(child, cell, powers);
+                }
+            }
+        }
+    }
+
+    // a'_k = sum_t C(k, t) a_t d^(k - t), d the center of the child from the center of the parent
+    private void shiftMultipole(int child, int parent, double[] powers) {
+        int p = order;
+        int from = 2 * p * child;
+        int to = 2 * p * parent;
+        complexPowers(cellX[child] - cellX[parent], cellY[child] - cellY[parent], powers, p);
+        for (int k = 0; k < p; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t <= k; t++) {
+                double c = binomial[k][t];
+                double ar = multipole[from + 2 * t];
+                double ai = multipole[from + 2 * t + 1];
+                double pr = powers[2 * (k - t)];
+                double pi = powers[2 * (k - t) + 1];
+                re += c * (ar * pr - ai * pi);
+                im += c * (ar * pi + ai * pr);
+            }
+            multipole[to + 2 * k] += re;
+            multipole[to + 2 * k + 1] += im;
+        }
+    }
+
+    // Pairs of cells, from the root: far pairs exchange their expansions, near leaves are summed directly
+    private void traverse() {
+        far.clear();
+        near.clear();
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            boolean leafA = cellChildCount[a] == 0;
+            boolean leafB = cellChildCount[b] == 0;
+            if (a == b) {
+                if (leafA) {
+                    near.add(a, a);
+                    continue;
+                }
+                int first = cellFirstChild[a];
+                int last = first + cellChildCount[a];
+                for (int i = first; i < last; i++) {
+                    for (int j = i; j < last; j++) {
+                        stack = push(stack, top, i, j);
+                        top += 2;
+                    }
+                }
+                continue;
+            }
+            double xDist = cellX[a] - cellX[b];
+            double yDist = cellY[a] - cellY[b];
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+            if (cellRadius[a] + cellRadius[b] < SEPARATION * distance) {
+                far.add(a, b);
+                far.add(b, a);
+            } else if (leafA && leafB) {
+                near.add(a, b);
+                near.add(b, a);
+            } else {
+                // Split the largest cell that can be
+                int split = leafB || (!leafA && cellRadius[a] >= cellRadius[b]) ? a : b;
+                int other = split == a ? b : a;
+                for (int child = cellFirstChild[split]; child < cellFirstChild[split] + cellChildCount[split]; child++) {
+                    stack = push(stack, top, child, other);
+                    top += 2;
+                }
+            }
+        }
+        farStart = far.toStarts(cellCount, farStart);
+        farSource = far.sourcesByTarget(farStart, farSource);
+        nearStart = near.toStarts(cellCount, nearStart);
+        nearSource = near.sourcesByTarget(nearStart, nearSource);
+    }
+
+    private static int[] push(int[] stack, int top, int a, int b) {
+        if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[top] = a;
+        stack[top + 1] = b;
+        return stack;
+    }
+
+    // b_l = (-1)^l sum_k a_k C(k + l, l) / D^(k + l + 1), D the center of the target from the center of the source
+    // The powers go to the scratch array of the range, 4 * order long
+    private void multipoleToLocal(int target, double[] inverse) {
+        int p = order;
+        int to = 2 * p * target;
+        Arrays.fill(local, to, to + 2 * p, 0);
+        for (int k = farStart[target]; k < farStart[target + 1]; k++) {
+            int source = farSource[k];
+            int from = 2 * p * source;
+            double dX = cellX[target] - cellX[source];
+            double dY = cellY[target] - cellY[source];
+            double norm = dX * dX + dY * dY;
+            // Powers of 1 / D, from 1 / D^1
+            complexPowers(dX / norm, -dY / norm, inverse, 2 * p);
+            for (int l = 0; l < p; l++) {
+                double re = 0;
+                double im = 0;
+                for (int j = 0; j < p; j++) {
+                    double c = binomial[j + l][l];
+                    double ar = multipole[from + 2 * j];
+                    double ai = multipole[from + 2 * j + 1];
+                    // inverse[m] holds 1 / D^m, the term needs 1 / D^(j + l + 1)
+                    double pr = inverse[2 * (j + l + 1)];
+                    double pi = inverse[2 * (j + l + 1) + 1];
+                    re += c * (ar * pr - ai * pi);
+                    im += c * (ar * pi + ai * pr);
+                }
+                if ((l & 1) == 1) {
+                    re = -re;
+                    im = -im;
+                }
+                local[to + 2 * l] += re;
+                local[to + 2 * l + 1] += im;
+            }
+        }
+    }
+
+    // Locals handed down: b'_t = sum_(l >= t) C(l, t) b_l d^(l - t), d the center of the child from the parent
+    private void downward() {
+        int p = order;
+        double[] powers = new double[2 * p];
+        for (int cell = 0; cell < cellCount; cell++) {
+            int from = 2 * p * cell;
+            for (int child = cellFirstChild[cell]; child < cellFirstChild[cell] + cellChildCount[cell]; child++) {
+                int to = 2 * p * child;
+                complexPowers(cellX[child] - cellX[cell], cellY[child] - cellY[cell], powers, p);
+                for (int t = 0; t < p; t++) {
+                    double re = 0;
+                    double im = 0;
+                    for (int l = t; l < p; l++) {
+                        double c = binomial[l][t];
+                        double br = local[from + 2 * l];
+                        double bi = local[from + 2 * l + 1];
+                        double pr = powers[2 * (l - t)];
+                        double pi = powers[2 * (l - t) + 1];
+                        re += c * (br * pr - bi * pi);
+                        im += c * (br * pi + bi * pr);
+                    }
+                    local[to + 2 * t] += re;
+                    local[to + 2 * t + 1] += im;
+                }
+            }
+        }
+    }
+
+    // Writes z^0 to z^(count - 1) in powers, real and imaginary parts interleaved
+    private static void complexPowers(double zx, double zy, double[] powers, int count) {
+        double re = 1;
+        double im = 0;
+        for (int k = 0; k < count; k++) {
+            powers[2 * k] = re;
+            powers[2 * k + 1] = im;
+            double r = re * zx - im * zy;
+            im = re * zy + im * zx;
+            re = r;
+        }
+    }
+
+    private static double[][] binomials(int size) {
+        double[][] c = new double[size][size];
+        for (int n = 0; n < size; n++) {
+            c[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                c[n][k] = c[n - 1][k - 1] + (k < n ? c[n - 1][k] : 0);
+            }
+        }
+        return c;
+    }
+
+    // Growing list of (target, source) pairs of cells
+    private static final class PairList {
+
+        private int[] targets = new int[16];
+        private int[] sources = new int[16];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int target, int source) {
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, 2 * size);
+                sources = Arrays.copyOf(sources, 2 * size);
+            }
+            targets[size] = target;
+            sources[size] = source;
+            size++;
+        }
+
+        // Start of the pairs of each target once sorted by target
+        int[] toStarts(int cellCount, int[] reuse) {
+            int[] starts = reuse.length > cellCount ? reuse : new int[cellCount + 1];
+            Arrays.fill(starts, 0, cellCount + 1, 0);
+            for (int i = 0; i < size; i++) {
+                starts[targets[i] + 1]++;
+            }
+            for (int c = 0; c < cellCount; c++) {
+                starts[c + 1] += starts[c];
+            }
+            return starts;
+        }
+
+        int[] sourcesByTarget(int[] starts, int[] reuse) {
+            int[] sorted = reuse.length >= size ? reuse : new int[size];
+            int[] next = new int[starts.length];
+            System.arraycopy(starts, 0, next, 0, starts.length);
+            for (int i = 0; i < size; i++) {
+                sorted[next[targets[i]]++] = sources[i];
+            }
+            return sorted;
+        }
+    }
+}
@@ -45,19 +45,22 @@ import org.gephi.model.Edge;
 import org.gephi.model.Graph;
 import org.gephi.model.Node;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleSupplier;
 
 /**
  * ForceAtlas 2 Layout, manages each step of the computations.
  *
  * @author Mathieu Jacomy
  */
-public class ForceAtlas2 {
+public class ForceAtlas2 implements AutoCloseable {
+
+    // Pool of the layouts without an executor of their own, its threads are daemons
+    private static ForkJoinPool sharedPool;
 
     private Graph graph;
     private double edgeWeightInfluence;
@@ -66,22 +69,55 @@ public class ForceAtlas2 {
     private double gravity;
     private double speed;
     private double speedEfficiency;
+    private double lastSwinging;
+    private double lastEffectiveTraction;
     private boolean outboundAttractionDistribution;
     private boolean adjustSizes;
     private boolean barnesHutOptimize;
     private double barnesHutTheta;
+    private boolean barnesHutRefit;
+    private double barnesHutRefitTolerance;
+    private boolean fmmOptimize;
+    private int fmmOrder;
+    private boolean threeDimensional;
+    private boolean collisionGrid;
+    private double edgeSampling;
+    private long samplingSeed;
     private boolean linLogMode;
     private boolean strongGravityMode;
     private RepulsionForceProvider repulsionForceProvider;
     private ForceFactory.CustomForce customForce;
+    private BulkCustomForce bulkCustomForce;
+    private LayoutData customForceData;
     private int threadCount;
     private int currentThreadCount;
     private Region rootRegion;
+    private CategoryIndex categories;
     double outboundAttCompensation = 1;
+    private ExecutorService executor;
     private ExecutorService pool;
+    private CostBalancedRanges repulsionRanges;
+    private boolean repulsionRangesBarnesHut;
 
+    private StrengthsLogLevel strengthsLogLevel = StrengthsLogLevel.FULL;
+    private int strengthsLogSampleStride = 100;
+    private ForceAtlas2Strengths strengths;
     private HashMap<Node, ForceAtlas2StrengthsLog> nodesProperties;
     private NodePositionInitializer nodePositionInitializer;
+    private boolean arrayLayout;
+    private boolean multilevel;
+    private int multilevelCoarsestSize;
+    private int multilevelIterations;
+    private boolean activeSet;
+    private double sleepThreshold;
+    private int sleepIterations;
+    private int wakeInterval;
+    private int incrementalHops;
+    private ArrayLayoutEngine arrayEngine;
+    private LayoutScratch scratch;
+    private LayoutCheckpoint checkpoint;
+    private int checkpointInterval;
+    private long iteration;
 
     public ForceAtlas2() {
         this.threadCount = Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
@@ -89,12 +125,19 @@ public class ForceAtlas2 {
 
     public void initAlgo() {
 
-        Optional.ofNullable(nodePositionInitializer)
-                .orElse(new RandomNodePositionInitializer())
-                .initializeNodePositions(graph);
+        // Resuming: positions come from the checkpoint, after the layout data is initialised
+        if (checkpoint != null && checkpoint.getNodeCount() != graph.getNodeCount()) {
+            throw new IllegalArgumentException("The checkpoint is for " + checkpoint.getNodeCount()
+                    + " nodes, the graph has " + graph.getNodeCount() + ".");
+        }
+        boolean resume = checkpoint != null && checkpoint.hasState();
+        if (!resume) {
+            initializePositions();
+        }
 
         speed = 1.;
         speedEfficiency = 1.;
+        iteration = 0;
 
         Node[] nodes = graph.getNodes();
 
@@ -107,8 +150,107 @@ public class ForceAtlas2 {
             n.setDy(0);
         }
 
-        pool = Executors.newFixedThreadPool(threadCount);
+        pool = executor != null ? executor : getSharedExecutor();
         currentThreadCount = threadCount;
+        repulsionRanges = null;
+        // The categories are interned once, the regions of the iterations count them by id while the nodes stay the same
+        categories = null;
+
+        // Multilevel: the initial positions are refined on coarsened copies of the graph first
+        LayoutData data = null;
+        if (isMultilevel() && !resume) {
+            data = readLayoutData();
+            new MultilevelLayout(this, pool, currentThreadCount).apply(data);
+            data.writeTo(nodes);
+        }
+
+        // Array layout: positions, deltas and masses are copied once and the iterations run on primitive columns.
+        // Bulk forces, the fast multipole method, the active set, 3D and the collision grid switch it on. Repulsion providers without a bulk force work on Node objects, they keep the
+        // Node based iterations.
+        arrayEngine = null;
+        customForceData = null;
+        boolean bulkRepulsion = getRepulsionForceProvider() != null
+                && getRepulsionForceProvider().getBulkRepulsionForce(isAdjustSizes(), getScalingRatio()) != null;
+        if ((isArrayLayout() || bulkRepulsion || isFmmOptimize() || getBulkCustomForce() != null || isActiveSet()
+                || isThreeDimensional() || isCollisionGrid() && isAdjustSizes() || getEdgeSampling() < 1)
+                && (getRepulsionForceProvider() == null || bulkRepulsion)) {
+            LayoutData engineData = data != null ? data : readLayoutData();
+            if (isThreeDimensional()) {
+                engineData.readZ(nodes);
+            }
+            arrayEngine = scratch != null
+                    ? scratch.getEngine(this, nodes, graph.getEdges(), pool, currentThreadCount)
+                    : new ArrayLayoutEngine(this, engineData, nodes, graph.getEdges(), pool, currentThreadCount);
+        } else if (getBulkCustomForce() != null) {
+            // The node indices and the edge columns are built once, the iterations only refresh the nodes
+            customForceData = LayoutData.fromGraph(graph);
+        }
+
+        if (resume) {
+            if (arrayEngine != null) {
+                checkpoint.read(arrayEngine.getData());
+                arrayEngine.setSpeed(checkpoint.getSpeed(), checkpoint.getSpeedEfficiency());
+                arrayEngine.setIterations(checkpoint.getIteration());
+            } else {
+                checkpoint.read(nodes);
+                speed = checkpoint.getSpeed();
+                speedEfficiency = checkpoint.getSpeedEfficiency();
+            }
+            iteration = checkpoint.getIteration();
+        }
+    }
+
+    /**
+     * Writes the current state to the checkpoint, see {@link #setCheckpoint(LayoutCheckpoint)}.
+     *
+     * @throws IllegalStateException when no checkpoint is set
+     */
+    public void writeCheckpoint() {
+        if (checkpoint == null) {
+            throw new IllegalStateException("No checkpoint set.");
+        }
+        if (arrayEngine != null) {
+            checkpoint.write(arrayEngine.getData(), iteration, arrayEngine.getSpeed(), arrayEngine.getSpeedEfficiency());
+        } else {
+            checkpoint.write(graph.getNodes(), iteration, speed, speedEfficiency);
+        }
+    }
+
+    private void initializePositions() {
+        Optional.ofNullable(nodePositionInitializer)
+                .orElse(new RandomNodePositionInitializer())
+                .initializeNodePositions(graph);
+        if (isThreeDimensional()) {
+            spreadDepths(graph.getNodes());
+        }
+    }
+
+    // Nodes all in the plane get random depths over the extent of the layout, else the depth forces stay 0
+    private static void spreadDepths(Node[] nodes) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (Node n : nodes) {
+            if (n.getZ() != 0) {
+                return;
+            }
+            min = Math.min(min, Math.min(n.getX(), n.getY()));
+            max = Math.max(max, Math.max(n.getX(), n.getY()));
+        }
+        double extent = max > min ? max - min : 1;
+        for (Node n : nodes) {
+            n.setZ((float) ((Math.random() - 0.5) * extent));
+        }
+    }
+
+    private LayoutData readLayoutData() {
+        return scratch != null ? scratch.read(graph) : LayoutData.fromGraph(graph);
+    }
+
+    /**
+     * Reuses the columns and engine of <code>scratch</code> for the array layout, instead of allocating them.
+     */
+    void setScratch(LayoutScratch scratch) {
+        this.scratch = scratch;
     }
 
     private double getEdgeWeight(Edge edge) {
@@ -116,6 +258,19 @@ public class ForceAtlas2 {
     }
 
     public void goAlgo() {
+        if (arrayEngine != null) {
+            arrayEngine.goAlgo();
+        } else {
+            goNodesAlgo();
+        }
+        iteration++;
+        if (checkpoint != null && getCheckpointInterval() > 0 && iteration % getCheckpointInterval() == 0) {
+            writeCheckpoint();
+        }
+    }
+
+    // Iteration on the Node objects
+    private void goNodesAlgo() {
         Node[] nodes = graph.getNodes();
         Edge[] edges = graph.getEdges();
 
@@ -130,7 +285,11 @@ public class ForceAtlas2 {
 
         // If Barnes Hut active, initialize root region
         if (isBarnesHutOptimize()) {
-            rootRegion = new Region(nodes);
+            // Interned again when the nodes or their categories changed since the last iteration
+            if (categories == null || !categories.matches(nodes)) {
+                categories = new CategoryIndex(nodes);
+            }
+            rootRegion = new Region(nodes, categories);
             rootRegion.buildSubRegions();
         }
 
@@ -149,35 +308,26 @@ public class ForceAtlas2 {
                 getRepulsionForceProvider().getRepulsionForce(isAdjustSizes(), getScalingRatio())
                 : ForceFactory.getForceFactory().buildRepulsion(isAdjustSizes(), getScalingRatio());
         int taskCount =
-                8 * currentThreadCount;  // The threadPool Executor Service will manage the fetching of tasks and threads.
-        // We make more tasks than threads because some tasks may need more time to compute.
-        ArrayList<Future> threads = new ArrayList();
-        for (int t = taskCount; t > 0; t--) {
-            int from = (int) Math.floor(nodes.length * (t - 1) / taskCount);
-            int to = (int) Math.floor(nodes.length * t / taskCount);
-            Future future = pool
-                    .submit(new NodesThread(nodes, from, to, isBarnesHutOptimize(), getBarnesHutTheta(), getGravity(),
-                            (isStrongGravityMode()) ?
-                                    (ForceFactory.getForceFactory().getStrongGravity(getScalingRatio())) :
-                                    (Repulsion), getScalingRatio(), rootRegion, Repulsion));
-            threads.add(future);
-        }
-        for (Future future : threads) {
-            try {
-                future.get();
-            } catch (Exception e) {
-                throw new RuntimeException("Unable to layout " + this.getClass().getSimpleName() + ".", e);
-            }
+                8 * currentThreadCount;  // The fork-join pool steals the halves of the ranges left when a thread is idle.
+        // The ranges are split on the cost of the nodes at the previous iteration, exact repulsion starts from the
+        // number of pairs of each node.
+        if (repulsionRanges == null || repulsionRangesBarnesHut != isBarnesHutOptimize()) {
+            repulsionRanges = new CostBalancedRanges(nodes.length, !isBarnesHutOptimize());
+            repulsionRangesBarnesHut = isBarnesHutOptimize();
         }
-        nodesProperties = new HashMap<>();
-        for (Node node : nodes) {
-            nodesProperties.put(node, new ForceAtlas2StrengthsLog());
-            nodesProperties.get(node).setId(node.getId());
-            nodesProperties.get(node).setLabel(node.getLabel());
-            nodesProperties.get(node).setX(node.getX());
-            nodesProperties.get(node).setY(node.getY());
-            nodesProperties.get(node).setRepulsionDx(node.getDx());
-            nodesProperties.get(node).setRepulsionDy(node.getDy());
+        ForceFactory.RepulsionForce gravityForce = (isStrongGravityMode()) ?
+                (ForceFactory.getForceFactory().getStrongGravity(getScalingRatio())) : (Repulsion);
+        repulsionRanges.run(pool, taskCount, (from, to) -> new NodesThread(nodes, from, to, isBarnesHutOptimize(),
+                getBarnesHutTheta(), getGravity(), gravityForce, getScalingRatio(), rootRegion, Repulsion));
+        ForceAtlas2Strengths strengths = prepareStrengths(nodes.length);
+        if (strengths != null) {
+            for (int s = 0; s < strengths.getCount(); s++) {
+                Node node = nodes[strengths.getNode(s)];
+                strengths.x[s] = node.getX();
+                strengths.y[s] = node.getY();
+                strengths.repulsionDx[s] = node.getDx();
+                strengths.repulsionDy[s] = node.getDy();
+            }
         }
 
         // Attraction
@@ -200,37 +350,71 @@ public class ForceAtlas2 {
         }
 
 
-        for (Node node : nodes) {
-            nodesProperties.get(node).setAttractionDx(node.getDx() - nodesProperties.get(node).getRepulsionDx());
-            nodesProperties.get(node).setAttractionDy(node.getDy() - nodesProperties.get(node).getRepulsionDy());
+        if (strengths != null) {
+            for (int s = 0; s < strengths.getCount(); s++) {
+                Node node = nodes[strengths.getNode(s)];
+                strengths.attractionDx[s] = node.getDx() - strengths.repulsionDx[s];
+                strengths.attractionDy[s] = node.getDy() - strengths.repulsionDy[s];
+            }
         }
 
         if (customForce != null) {
             customForce.apply(nodes, edges);
         }
+        if (bulkCustomForce != null) {
+            // Bulk custom forces work on columns, hand them a copy of the nodes
+            if (customForceData == null || customForceData.getNodeCount() != nodes.length
+                    || customForceData.getEdgeCount() != edges.length) {
+                customForceData = LayoutData.fromGraph(graph, customForceData);
+            } else {
+                customForceData.readNodes(nodes);
+            }
+            bulkCustomForce.prepare(customForceData);
+            if (bulkCustomForce.isParallelizable()) {
+                ParallelRanges.run(pool, ParallelRanges.split(nodes.length, currentThreadCount),
+                        (from, to) -> () -> bulkCustomForce.apply(customForceData, from, to));
+            } else {
+                bulkCustomForce.apply(customForceData, 0, nodes.length);
+            }
+            double[] customDx = customForceData.getDx();
+            double[] customDy = customForceData.getDy();
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i].setDx((float) customDx[i]);
+                nodes[i].setDy((float) customDy[i]);
+            }
+        }
 
-        for (Node node : nodes) {
-            nodesProperties.get(node).setCustomForceDx(
-                    node.getDx() - nodesProperties.get(node).getRepulsionDx() - nodesProperties.get(node)
-                            .getAttractionDx());
-            nodesProperties.get(node).setCustomForceDy(
-                    node.getDy() - nodesProperties.get(node).getRepulsionDy() - nodesProperties.get(node)
-                            .getAttractionDy());
+        if (strengths != null) {
+            for (int s = 0; s < strengths.getCount(); s++) {
+                Node node = nodes[strengths.getNode(s)];
+                strengths.customForceDx[s] = node.getDx() - strengths.repulsionDx[s] - strengths.attractionDx[s];
+                strengths.customForceDy[s] = node.getDy() - strengths.repulsionDy[s] - strengths.attractionDy[s];
+            }
         }
 
         // Auto adjust speed
-        double totalSwinging = 0d;  // How much irregular movement
-        double totalEffectiveTraction = 0d;  // Hom much useful movement
-        for (Node n : nodes) {
-            if (!n.isFixed()) {
-                double swinging = Math
-                        .sqrt(Math.pow(n.getOldDx() - n.getDx(), 2) + Math.pow(n.getOldDy() - n.getDy(), 2));
-                totalSwinging +=
-                        n.getMass() * swinging;   // If the node has a burst change of direction, then it's not converging.
-                totalEffectiveTraction += n.getMass() * 0.5 * Math
-                        .sqrt(Math.pow(n.getOldDx() + n.getDx(), 2) + Math.pow(n.getOldDy() + n.getDy(), 2));
+        // NB: Muti-threaded, each task sums its own range
+        int[] bounds = ParallelRanges.split(nodes.length, currentThreadCount);
+        double[] totals = ParallelRanges.sum(pool, bounds, (from, to) -> {
+            double swingingSum = 0d;
+            double tractionSum = 0d;
+            for (int i = from; i < to; i++) {
+                Node n = nodes[i];
+                if (!n.isFixed()) {
+                    double swinging = Math
+                            .sqrt(Math.pow(n.getOldDx() - n.getDx(), 2) + Math.pow(n.getOldDy() - n.getDy(), 2));
+                    swingingSum +=
+                            n.getMass() * swinging;   // If the node has a burst change of direction, then it's not converging.
+                    tractionSum += n.getMass() * 0.5 * Math
+                            .sqrt(Math.pow(n.getOldDx() + n.getDx(), 2) + Math.pow(n.getOldDy() + n.getDy(), 2));
+                }
             }
-        }
+            return new double[]{swingingSum, tractionSum};
+        });
+        double totalSwinging = totals[0];  // How much irregular movement
+        double totalEffectiveTraction = totals[1];  // Hom much useful movement
+        lastSwinging = totalSwinging;
+        lastEffectiveTraction = totalEffectiveTraction;
         // We want that swingingMovement < tolerance * convergenceMovement
 
         // Optimize jitter tolerance
@@ -267,52 +451,169 @@ public class ForceAtlas2 {
         double maxRise = 0.5;   // Max rise: 50%
         speed = speed + Math.min(targetSpeed - speed, maxRise * speed);
         // Apply forces
-        if (isAdjustSizes()) {
-            // If nodes overlap prevention is active, it's not possible to trust the swinging mesure.
-            for (Node n : nodes) {
+        // NB: Muti-threaded, each task writes the log slots of its own nodes
+        boolean adjustSizes = isAdjustSizes();
+        double currentSpeed = speed;
+        ParallelRanges.run(pool, bounds, (from, to) -> () -> {
+            for (int i = from; i < to; i++) {
+                Node n = nodes[i];
+                int slot = strengths != null ? strengths.slot(i) : -1;
                 if (!n.isFixed()) {
 
                     // Adaptive auto-speed: the speed of each node is lowered
                     // when the node swings.
                     double swinging = n.getMass() * Math.sqrt((n.getOldDx() - n.getDx()) * (n.getOldDx() - n.getDx())
                             + (n.getOldDy() - n.getDy()) * (n.getOldDy() - n.getDy()));
-                    double factor = 0.1 * speed / (1f + Math.sqrt(speed * swinging));
-
-                    double df = Math.sqrt(Math.pow(n.getDx(), 2) + Math.pow(n.getDy(), 2));
-                    factor = Math.min(factor * df, 10.) / df;
+                    double factor;
+                    if (adjustSizes) {
+                        // If nodes overlap prevention is active, it's not possible to trust the swinging mesure.
+                        factor = 0.1 * currentSpeed / (1f + Math.sqrt(currentSpeed * swinging));
+                        double df = Math.sqrt(Math.pow(n.getDx(), 2) + Math.pow(n.getDy(), 2));
+                        factor = Math.min(factor * df, 10.) / df;
+                    } else {
+                        factor = currentSpeed / (1f + Math.sqrt(currentSpeed * swinging));
+                    }
 
                     double x = n.getX() + n.getDx() * factor;
                     double y = n.getY() + n.getDy() * factor;
 
-                    nodesProperties.get(n).setActualDx(n.getDx() * factor);
-                    nodesProperties.get(n).setActualDy(n.getDy() * factor);
+                    if (slot >= 0) {
+                        strengths.actualDx[slot] = n.getDx() * factor;
+                        strengths.actualDy[slot] = n.getDy() * factor;
+                    }
 
                     n.setX((float) x);
                     n.setY((float) y);
+                } else if (slot >= 0) {
+                    strengths.actualDx[slot] = 0;
+                    strengths.actualDy[slot] = 0;
                 }
             }
-        } else {
-            for (Node n : nodes) {
-                if (!n.isFixed()) {
+        });
+    }
 
-                    // Adaptive auto-speed: the speed of each node is lowered
-                    // when the node swings.
-                    double swinging = n.getMass() * Math.sqrt((n.getOldDx() - n.getDx()) * (n.getOldDx() - n.getDx())
-                            + (n.getOldDy() - n.getDy()) * (n.getOldDy() - n.getDy()));
-                    //double factor = speed / (1f + Math.sqrt(speed * swinging));
-                    double factor = speed / (1f + Math.sqrt(speed * swinging));
+    /**
+     * Runs the whole layout, from {@link #initAlgo()} to {@link #endAlgo()}, until one of the criteria is met.
+     */
+    public RunResult run(StopCriteria criteria) {
+        return run(criteria, this::initAlgo, this::goAlgo, this::endAlgo, this::getSwinging, this::getTraction);
+    }
 
-                    double x = n.getX() + n.getDx() * factor;
-                    double y = n.getY() + n.getDy() * factor;
+    /**
+     * Lays out the graph again after a change, moving only the nodes near it: the nodes added by
+     * <code>delta</code> are placed next to their neighbors, then the nodes within {@link #getIncrementalHops()}
+     * hops of the change run iterations until <code>criteria</code> are met. The other nodes keep their
+     * positions and still repulse the moving ones. The graph must already hold the change, and the nodes that
+     * were there before their positions. The swinging and traction of the result are divided by the number of
+     * moving nodes.
+     */
+    public RunResult runIncremental(GraphDelta delta, StopCriteria criteria) {
+        IncrementalLayout incremental = new IncrementalLayout(this, graph, delta,
+                executor != null ? executor : getSharedExecutor(), threadCount);
+        return run(criteria, incremental::initAlgo, incremental::goAlgo, incremental::endAlgo,
+                incremental::getSwinging, incremental::getTraction);
+    }
 
-                    nodesProperties.get(n).setActualDx(n.getDx() * factor);
-                    nodesProperties.get(n).setActualDy(n.getDy() * factor);
+    /**
+     * Lays out each connected component of the graph on its own, in parallel, then packs them side by side. Small
+     * components don't repulse the large ones and the gravity only holds each component together. Each component
+     * runs until <code>criteria</code> are met, the time budget being shared, on the array layout in the plane.
+     * The iterations of the result are those of the longest component, the swinging and traction the sums over
+     * the components divided by the number of nodes. Packing moves whole components; the components
+     * holding a fixed node stay in place and the others are packed on their right.
+     */
+    public RunResult runComponents(StopCriteria criteria) {
+        checkCriteria(criteria);
+        initializePositions();
+        return new ComponentLayout(this, graph, executor != null ? executor : getSharedExecutor(), threadCount)
+                .run(criteria);
+    }
 
-                    n.setX((float) x);
-                    n.setY((float) y);
+    /**
+     * Lays out a graph kept in files, for graphs too large for the heap, until <code>criteria</code> are met. The
+     * graph of the layout isn't used, only its settings: Barnes Hut repulsion with its theta, gravity, scaling,
+     * LinLog mode, outbound attraction distribution and edge weight influence. Sizes don't prevent overlaps.
+     * <p>
+     * The node file holds, in little-endian floats, the x of every node, then the y of every node, then the size
+     * of every node; the positions are moved in place. The edge file holds one record per edge: the index of its
+     * source as an int, of its target as an int and its weight as a float, in little-endian. Masses, deltas and
+     * old deltas are kept in a work file created next to the node file and deleted at the end.
+     */
+    public RunResult runOutOfCore(Path nodeFile, Path edgeFile, StopCriteria criteria) {
+        OutOfCoreLayout outOfCore = new OutOfCoreLayout(this, nodeFile, edgeFile,
+                executor != null ? executor : getSharedExecutor(), threadCount);
+        return run(criteria, outOfCore::initAlgo, outOfCore::goAlgo, outOfCore::endAlgo, outOfCore::getSwinging,
+                outOfCore::getTraction);
+    }
+
+    private static void checkCriteria(StopCriteria criteria) {
+        if (criteria.getMaxIterations() == null && criteria.getTimeBudgetMillis() == null
+                && criteria.getSwingingThreshold() == null && criteria.getTractionThreshold() == null) {
+            throw new IllegalArgumentException("At least one stop criterion must be set.");
+        }
+    }
+
+    private RunResult run(StopCriteria criteria, Runnable init, Runnable step, Runnable end, DoubleSupplier swinging,
+                          DoubleSupplier traction) {
+        checkCriteria(criteria);
+        long start = System.nanoTime();
+        Long budget = criteria.getTimeBudgetMillis();
+        long deadline = budget != null ? start + budget * 1000000L : Long.MAX_VALUE;
+        int iterations = 0;
+        StopReason reason = null;
+
+        try {
+            init.run();
+            while (reason == null) {
+                if (criteria.getMaxIterations() != null && iterations >= criteria.getMaxIterations()) {
+                    reason = StopReason.MAX_ITERATIONS;
+                    break;
+                }
+                step.run();
+                iterations++;
+                if (isConverged(criteria, swinging.getAsDouble(), traction.getAsDouble())) {
+                    reason = StopReason.CONVERGED;
+                } else if (budget != null && System.nanoTime() - deadline >= 0) {
+                    reason = StopReason.TIME_BUDGET;
                 }
             }
+        } finally {
+            end.run();
+        }
+
+        RunResult result = new RunResult();
+        result.setReason(reason);
+        result.setIterations(iterations);
+        result.setElapsedMillis((System.nanoTime() - start) / 1000000L);
+        result.setSwinging(swinging.getAsDouble());
+        result.setTraction(traction.getAsDouble());
+        return result;
+    }
+
+    boolean isConverged(StopCriteria criteria, double swinging, double traction) {
+        if (criteria.getSwingingThreshold() == null && criteria.getTractionThreshold() == null) {
+            return false;
         }
+        return (criteria.getSwingingThreshold() == null || swinging < criteria.getSwingingThreshold())
+                && (criteria.getTractionThreshold() == null || traction < criteria.getTractionThreshold());
+    }
+
+    /**
+     * Returns the total swinging (irregular movement) of the last iteration, divided by the number of nodes.
+     */
+    public double getSwinging() {
+        int nodeCount = graph.getNodeCount();
+        double totalSwinging = arrayEngine != null ? arrayEngine.getTotalSwinging() : lastSwinging;
+        return nodeCount > 0 ? totalSwinging / nodeCount : 0;
+    }
+
+    /**
+     * Returns the total effective traction (useful movement) of the last iteration, divided by the number of nodes.
+     */
+    public double getTraction() {
+        int nodeCount = graph.getNodeCount();
+        double totalEffectiveTraction = arrayEngine != null ? arrayEngine.getTotalEffectiveTraction() : lastEffectiveTraction;
+        return nodeCount > 0 ? totalEffectiveTraction / nodeCount : 0;
     }
 
     public boolean canAlgo() {
@@ -320,13 +621,73 @@ public class ForceAtlas2 {
     }
 
     public void endAlgo() {
+        writeBack();
+        if (arrayEngine != null) {
+            lastSwinging = arrayEngine.getTotalSwinging();
+            lastEffectiveTraction = arrayEngine.getTotalEffectiveTraction();
+            // The engine of a scratch is kept for the next layout, without the references to this one
+            arrayEngine.endAlgo();
+        }
+        arrayEngine = null;
+        strengths = null;
         nodesProperties = null;
-        try {
-            pool.shutdown();
-        } finally {
+        categories = null;
+        rootRegion = null;
+        customForceData = null;
+        // The pool is shared or owned by the caller, it outlives the layout
+        pool = null;
+    }
+
+    /**
+     * Same as {@link #endAlgo()}, so the layout can be used in a try-with-resources statement.
+     */
+    @Override
+    public void close() {
+        endAlgo();
+    }
+
+    /**
+     * Returns the pool used by the layouts without an executor, one thread per core at most, so concurrent
+     * layouts share the cores instead of each starting its own threads.
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Returns the diagnostics columns of this iteration, reusing the previous ones when the level didn't change,
+     * or <code>null</code> when the strengths log is off. Drops the log objects built from the previous iteration.
+     */
+    ForceAtlas2Strengths prepareStrengths(int nodeCount) {
+        nodesProperties = null;
+        int stride;
+        if (getStrengthsLogLevel() == StrengthsLogLevel.FULL) {
+            stride = 1;
+        } else if (getStrengthsLogLevel() == StrengthsLogLevel.SAMPLED) {
+            stride = Math.max(1, getStrengthsLogSampleStride());
+        } else {
+            strengths = null;
+            return null;
+        }
+        if (strengths == null || strengths.getStride() != stride
+                || strengths.getCount() != (nodeCount + stride - 1) / stride) {
+            strengths = new ForceAtlas2Strengths(nodeCount, stride);
         }
+        return strengths;
     }
 
+    /**
+     * Copies the layout state to the graph's nodes. Only needed in array layout mode, where the nodes
+     * are otherwise only updated by {@link #endAlgo()}.
+     */
+    public void writeBack() {
+        if (arrayEngine != null) {
+            arrayEngine.writeBack();
+        }
+    }
 
     public void resetPropertiesValues() {
         int nodesCount = 0;
@@ -358,6 +719,26 @@ public class ForceAtlas2 {
             setBarnesHutOptimize(false);
         }
         setBarnesHutTheta(1.2);
+        setBarnesHutRefit(false);
+        setBarnesHutRefitTolerance(0.05);
+        setFmmOptimize(false);
+        setFmmOrder(8);
+        setThreeDimensional(false);
+        setCollisionGrid(false);
+        setEdgeSampling(1.);
+        setSamplingSeed(42L);
+        setArrayLayout(false);
+        setMultilevel(false);
+        setCheckpointInterval(100);
+        setMultilevelCoarsestSize(100);
+        setMultilevelIterations(50);
+        setActiveSet(false);
+        setSleepThreshold(0.001);
+        setSleepIterations(10);
+        setWakeInterval(50);
+        setIncrementalHops(2);
+        setStrengthsLogLevel(StrengthsLogLevel.FULL);
+        setStrengthsLogSampleStride(100);
         setThreadsCount(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     }
 
@@ -375,6 +756,29 @@ public class ForceAtlas2 {
         this.barnesHutTheta = barnesHutTheta;
     }
 
+    public Boolean isBarnesHutRefit() {
+        return barnesHutRefit;
+    }
+
+    /**
+     * In array layout mode, keeps the Barnes Hut tree between iterations and only updates its masses and
+     * sizes, until too many nodes left their cell (see {@link #setBarnesHutRefitTolerance(Double)}).
+     */
+    public void setBarnesHutRefit(Boolean barnesHutRefit) {
+        this.barnesHutRefit = barnesHutRefit;
+    }
+
+    public Double getBarnesHutRefitTolerance() {
+        return barnesHutRefitTolerance;
+    }
+
+    /**
+     * Fraction of the nodes allowed to leave their Barnes Hut cell before the tree is rebuilt.
+     */
+    public void setBarnesHutRefitTolerance(Double barnesHutRefitTolerance) {
+        this.barnesHutRefitTolerance = barnesHutRefitTolerance;
+    }
+
     public Double getEdgeWeightInfluence() {
         return edgeWeightInfluence;
     }
@@ -431,6 +835,63 @@ public class ForceAtlas2 {
         this.customForce = customForce;
     }
 
+    public BulkCustomForce getBulkCustomForce() {
+        return bulkCustomForce;
+    }
+
+    /**
+     * Sets a custom force working on columns, applied after the custom force on nodes. It runs on the array
+     * layout, see {@link #setArrayLayout(Boolean)}.
+     */
+    public void setBulkCustomForce(BulkCustomForce bulkCustomForce) {
+        this.bulkCustomForce = bulkCustomForce;
+    }
+
+    /**
+     * Returns the number of iterations done since {@link #initAlgo()}, including the ones of a resumed checkpoint.
+     */
+    public long getIteration() {
+        return iteration;
+    }
+
+    public LayoutCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Resumes from the checkpoint at {@link #initAlgo()} when it holds a state, and writes the state to it every
+     * {@link #getCheckpointInterval()} iterations. Node <code>i</code> of the checkpoint must be node
+     * <code>i</code> of the graph, {@link #initAlgo()} fails when the numbers of nodes differ. See
+     * {@link LayoutCheckpoint} for the state that isn't kept.
+     */
+    public void setCheckpoint(LayoutCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public Integer getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Number of iterations between two checkpoints, 0 to only write them with {@link #writeCheckpoint()}.
+     */
+    public void setCheckpointInterval(Integer checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the layout on the given executor, which isn't shut down by {@link #endAlgo()}. When
+     * <code>null</code>, the layout runs on {@link #getSharedExecutor()}. The thread count then only sets how
+     * finely the work is split. A {@link ForkJoinPool} balances the repulsion best.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     public Integer getThreadsCount() {
         return threadCount;
     }
@@ -463,10 +924,233 @@ public class ForceAtlas2 {
         this.barnesHutOptimize = barnesHutOptimize;
     }
 
+    public Boolean isFmmOptimize() {
+        return fmmOptimize;
+    }
+
+    /**
+     * Computes the repulsion by the fast multipole method, see {@link FmmRepulsion}, in place of Barnes Hut or
+     * the exact repulsion. Runs on the array layout. A repulsion force provider with a bulk force takes precedence.
+     */
+    public void setFmmOptimize(Boolean fmmOptimize) {
+        this.fmmOptimize = fmmOptimize;
+    }
+
+    public Integer getFmmOrder() {
+        return fmmOrder;
+    }
+
+    /**
+     * Number of terms of the multipole expansions, see {@link FmmRepulsion#setOrder(Integer)}.
+     */
+    public void setFmmOrder(Integer fmmOrder) {
+        this.fmmOrder = fmmOrder;
+    }
+
+    public Boolean isThreeDimensional() {
+        return threeDimensional;
+    }
+
+    /**
+     * Lays the nodes out in 3D, their depth being {@link Node#getZ()}. Runs on the array layout, with an octree for
+     * Barnes Hut. Nodes all at depth 0 get random depths at {@link #initAlgo()}. Multilevel placement, incremental
+     * runs, checkpoints, strength logs and repulsion providers without a bulk force stay in the plane, the fast
+     * multipole method is not available.
+     */
+    public void setThreeDimensional(Boolean threeDimensional) {
+        this.threeDimensional = threeDimensional;
+    }
+
+    public Boolean isCollisionGrid() {
+        return collisionGrid;
+    }
+
+    /**
+     * With {@link #setAdjustSizes(Boolean) adjustSizes}, finds the overlapping nodes on a uniform grid instead of
+     * in the repulsion: the repulsion is the plain one, between centers, and only the pairs of nodes close enough
+     * to overlap get the anti-collision force. Runs on the array layout, in 2D. See {@link OverlapRemoval} to remove the
+     * overlaps once after a layout instead.
+     */
+    public void setCollisionGrid(Boolean collisionGrid) {
+        this.collisionGrid = collisionGrid;
+    }
+
+    public Double getEdgeSampling() {
+        return edgeSampling;
+    }
+
+    /**
+     * Share of the edges, between 0 and 1, that attract at each iteration, drawn at random and their attraction
+     * divided by the share, so that its expectation stays the same. Below 1, the array layout is used. Goes well
+     * with a {@link NegativeSamplingRepulsion}.
+     */
+    public void setEdgeSampling(Double edgeSampling) {
+        this.edgeSampling = edgeSampling;
+    }
+
+    public Long getSamplingSeed() {
+        return samplingSeed;
+    }
+
+    /**
+     * Seed of the edges drawn by {@link #setEdgeSampling(Double)}, the same seed draws the same edges.
+     */
+    public void setSamplingSeed(Long samplingSeed) {
+        this.samplingSeed = samplingSeed;
+    }
+
+    public Boolean isArrayLayout() {
+        return arrayLayout;
+    }
+
+    /**
+     * Runs the iterations on primitive arrays copied from the nodes at {@link #initAlgo()},
+     * the nodes are updated by {@link #writeBack()} and {@link #endAlgo()}. The forces are those of the layout on
+     * <code>Node</code> objects, Barnes Hut included, only its tree differs.
+     */
+    public void setArrayLayout(Boolean arrayLayout) {
+        this.arrayLayout = arrayLayout;
+    }
+
+    public Boolean isMultilevel() {
+        return multilevel;
+    }
+
+    /**
+     * Computes the initial positions on a hierarchy of coarsened graphs at {@link #initAlgo()}, starting from the
+     * positions of the node position initializer.
+     */
+    public void setMultilevel(Boolean multilevel) {
+        this.multilevel = multilevel;
+    }
+
+    public Integer getMultilevelCoarsestSize() {
+        return multilevelCoarsestSize;
+    }
+
+    /**
+     * Coarsening stops once a level has at most this many nodes.
+     */
+    public void setMultilevelCoarsestSize(Integer multilevelCoarsestSize) {
+        this.multilevelCoarsestSize = multilevelCoarsestSize;
+    }
+
+    public Integer getMultilevelIterations() {
+        return multilevelIterations;
+    }
+
+    /**
+     * Number of iterations run on each coarsened level.
+     */
+    public void setMultilevelIterations(Integer multilevelIterations) {
+        this.multilevelIterations = multilevelIterations;
+    }
+
+    public Boolean isActiveSet() {
+        return activeSet;
+    }
+
+    /**
+     * Puts the nodes that barely move to sleep: they keep their position and still repulse the others, but their
+     * forces are no longer computed until a neighbor moves a lot or the periodic wake up, see
+     * {@link #setWakeInterval(Integer)}. Runs on the array layout.
+     */
+    public void setActiveSet(Boolean activeSet) {
+        this.activeSet = activeSet;
+    }
+
+    public Double getSleepThreshold() {
+        return sleepThreshold;
+    }
+
+    /**
+     * Displacement per iteration below which a node is considered still, as a ratio of the mean edge length.
+     */
+    public void setSleepThreshold(Double sleepThreshold) {
+        this.sleepThreshold = sleepThreshold;
+    }
+
+    public Integer getSleepIterations() {
+        return sleepIterations;
+    }
+
+    /**
+     * Number of iterations a node must stay still before it falls asleep.
+     */
+    public void setSleepIterations(Integer sleepIterations) {
+        this.sleepIterations = Math.max(1, sleepIterations);
+    }
+
+    public Integer getWakeInterval() {
+        return wakeInterval;
+    }
+
+    /**
+     * Number of iterations between two wake ups of all the sleeping nodes, 0 to never wake them all.
+     */
+    public void setWakeInterval(Integer wakeInterval) {
+        this.wakeInterval = wakeInterval;
+    }
+
+    public Integer getIncrementalHops() {
+        return incrementalHops;
+    }
+
+    /**
+     * Number of hops around a change within which the nodes move, see
+     * {@link #runIncremental(GraphDelta, StopCriteria)}.
+     */
+    public void setIncrementalHops(Integer incrementalHops) {
+        this.incrementalHops = Math.max(0, incrementalHops);
+    }
+
+    /**
+     * Returns the number of awake nodes after the last iteration of the active-set mode, else the number of nodes.
+     */
+    public int getActiveNodeCount() {
+        return arrayEngine != null ? arrayEngine.getActiveCount() : graph.getNodes().length;
+    }
+
+    /**
+     * Returns the strengths logged by the last iteration, one entry per recorded node. The map is built
+     * from {@link #getStrengths()} on the first call after each iteration.
+     */
     public HashMap<Node, ForceAtlas2StrengthsLog> getNodesProperties() {
+        if (strengths == null) {
+            return null;
+        }
+        if (nodesProperties == null) {
+            nodesProperties = strengths.toLogs(graph.getNodes());
+        }
         return nodesProperties;
     }
 
+    /**
+     * Returns the columns logged by the last iteration, <code>null</code> when the strengths log is off.
+     */
+    public ForceAtlas2Strengths getStrengths() {
+        return strengths;
+    }
+
+    public StrengthsLogLevel getStrengthsLogLevel() {
+        return strengthsLogLevel;
+    }
+
+    public void setStrengthsLogLevel(StrengthsLogLevel strengthsLogLevel) {
+        this.strengthsLogLevel = strengthsLogLevel;
+    }
+
+    public Integer getStrengthsLogSampleStride() {
+        return strengthsLogSampleStride;
+    }
+
+    /**
+     * With {@link StrengthsLogLevel#SAMPLED}, only nodes whose index is a multiple of the stride are logged.
+     */
+    public void setStrengthsLogSampleStride(Integer strengthsLogSampleStride) {
+        this.strengthsLogSampleStride = strengthsLogSampleStride;
+    }
+
     public RepulsionForceProvider getRepulsionForceProvider() {
         return repulsionForceProvider;
     }
@@ -0,0 +1,145 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Node;
+
+import java.util.HashMap;
+
+/**
+ * Columnar force diagnostics of one iteration.
+ * <p>
+ * The recorded nodes are the nodes <code>i * stride</code> of the layout, slot <code>s</code> of every
+ * column belongs to node {@link #getNode(int) getNode(s)}. The columns are allocated once and overwritten
+ * by each iteration, {@link #toLogs(Node[])} copies them to {@link ForceAtlas2StrengthsLog} objects.
+ */
+public class ForceAtlas2Strengths {
+
+    private final int stride;
+    private final int count;
+
+    final double[] x;
+    final double[] y;
+    final double[] repulsionDx;
+    final double[] repulsionDy;
+    final double[] attractionDx;
+    final double[] attractionDy;
+    final double[] customForceDx;
+    final double[] customForceDy;
+    final double[] actualDx;
+    final double[] actualDy;
+
+    ForceAtlas2Strengths(int nodeCount, int stride) {
+        this.stride = stride;
+        this.count = (nodeCount + stride - 1) / stride;
+        this.x = new double[count];
+        this.y = new double[count];
+        this.repulsionDx = new double[count];
+        this.repulsionDy = new double[count];
+        this.attractionDx = new double[count];
+        this.attractionDy = new double[count];
+        this.customForceDx = new double[count];
+        this.customForceDy = new double[count];
+        this.actualDx = new double[count];
+        this.actualDy = new double[count];
+    }
+
+    /**
+     * Returns the slot of node index <code>n</code>, or <code>-1</code> if the node isn't recorded.
+     */
+    int slot(int n) {
+        if (stride == 1) {
+            return n;
+        }
+        return n % stride == 0 ? n / stride : -1;
+    }
+
+    /**
+     * Fills the custom force columns from the total deltas of the nodes, once all forces are applied.
+     */
+    void computeCustomForces(double[] dx, double[] dy) {
+        for (int s = 0; s < count; s++) {
+            int n = s * stride;
+            customForceDx[s] = dx[n] - repulsionDx[s] - attractionDx[s];
+            customForceDy[s] = dy[n] - repulsionDy[s] - attractionDy[s];
+        }
+    }
+
+    /**
+     * Builds the log objects of the recorded nodes, <code>nodes</code> being the nodes of the layout in index order.
+     */
+    public HashMap<Node, ForceAtlas2StrengthsLog> toLogs(Node[] nodes) {
+        HashMap<Node, ForceAtlas2StrengthsLog> logs = new HashMap<>();
+        for (int s = 0; s < count; s++) {
+            Node node = nodes[getNode(s)];
+            ForceAtlas2StrengthsLog log = new ForceAtlas2StrengthsLog();
+            log.setId(node.getId());
+            log.setLabel(node.getLabel());
+            log.setX(x[s]);
+            log.setY(y[s]);
+            log.setRepulsionDx(repulsionDx[s]);
+            log.setRepulsionDy(repulsionDy[s]);
+            log.setAttractionDx(attractionDx[s]);
+            log.setAttractionDy(attractionDy[s]);
+            log.setCustomForceDx(customForceDx[s]);
+            log.setCustomForceDy(customForceDy[s]);
+            log.setActualDx(actualDx[s]);
+            log.setActualDy(actualDy[s]);
+            logs.put(node, log);
+        }
+        return logs;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the index of the node recorded in slot <code>s</code>.
+     */
+    public int getNode(int s) {
+        return s * stride;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public double[] getRepulsionDx() {
+        return repulsionDx;
+    }
+
+    public double[] getRepulsionDy() {
+        return repulsionDy;
+    }
+
+    public double[] getAttractionDx() {
+        return attractionDx;
+    }
+
+    public double[] getAttractionDy() {
+        return attractionDy;
+    }
+
+    public double[] getCustomForceDx() {
+        return customForceDx;
+    }
+
+    public double[] getCustomForceDy() {
+        return customForceDy;
+    }
+
+    public double[] getActualDx() {
+        return actualDx;
+    }
+
+    public double[] getActualDy() {
+        return actualDy;
+    }
+}
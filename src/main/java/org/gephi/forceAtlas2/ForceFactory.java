@@ -105,6 +105,18 @@ public class ForceFactory {
         }
     }
 
+    public RepulsionKernel buildRepulsionKernel(boolean adjustBySize, double coefficient) {
+        return new RepulsionKernel(adjustBySize, coefficient);
+    }
+
+    public GravityKernel buildGravityKernel(boolean strongGravity, double coefficient) {
+        return new GravityKernel(strongGravity, coefficient);
+    }
+
+    public AttractionKernel buildAttractionKernel(boolean logAttraction, boolean distributedAttraction, boolean adjustBySize, double coefficient) {
+        return new AttractionKernel(logAttraction, distributedAttraction, adjustBySize, coefficient);
+    }
+
     public abstract class AttractionForce {
 
         public abstract void apply(Node n1, Node n2, double e); // Model for node-node attraction (e is for edge weight if needed)
@@ -124,6 +136,110 @@ public class ForceFactory {
         public abstract void apply(Node n, double g);           // Model for gravitation (anti-repulsion)
     }
 
+    /*
+     * Array kernels: the same formulas as the forces below, reduced to the
+     * "factor = force / distance" part so that the layout loops can run over
+     * LayoutData columns without a virtual call per node pair.
+     */
+    public static final class RepulsionKernel {
+
+        private final boolean antiCollision;
+        private final double coefficient;
+
+        private RepulsionKernel(boolean antiCollision, double coefficient) {
+            this.antiCollision = antiCollision;
+            this.coefficient = coefficient;
+        }
+
+        // Model for node-node repulsion, distance is the distance between the centers
+        public double nodeFactor(double distance, double m1, double m2, double s1, double s2) {
+            if (antiCollision) {
+                distance = distance - s1 - s2;
+                if (distance > 0) {
+                    return coefficient * m1 * m2 / distance / distance;
+                } else if (distance < 0) {
+                    return 100 * coefficient * m1 * m2;
+                }
+                return 0;
+            }
+            if (distance > 0) {
+                return coefficient * m1 * m2 / distance / distance;
+            }
+            return 0;
+        }
+
+        // Model for Barnes Hut approximation
+        public double regionFactor(double distance, double m, double regionMass) {
+            if (distance > 0) {
+                return coefficient * m * regionMass / distance / distance;
+            }
+            return 0;
+        }
+
+        public double getCoefficient() {
+            return coefficient;
+        }
+
+        public boolean isAntiCollision() {
+            return antiCollision;
+        }
+    }
+
+    public static final class GravityKernel {
+
+        private final boolean strongGravity;
+        private final double coefficient;
+
+        private GravityKernel(boolean strongGravity, double coefficient) {
+            this.strongGravity = strongGravity;
+            this.coefficient = coefficient;
+        }
+
+        // Model for gravitation (anti-repulsion), the shift is -position * factor
+        public double factor(double distance, double m, double g) {
+            if (distance > 0) {
+                return strongGravity ? coefficient * m * g : coefficient * m * g / distance;
+            }
+            return 0;
+        }
+    }
+
+    public static final class AttractionKernel {
+
+        private final boolean logAttraction;
+        private final boolean distributedAttraction;
+        private final boolean antiCollision;
+        private final double coefficient;
+
+        private AttractionKernel(boolean logAttraction, boolean distributedAttraction, boolean antiCollision, double coefficient) {
+            this.logAttraction = logAttraction;
+            this.distributedAttraction = distributedAttraction;
+            this.antiCollision = antiCollision;
+            this.coefficient = coefficient;
+        }
+
+        /*
+         * Model for node-node attraction, n1 is the source of the edge and e the edge weight.
+         * The source is shifted by (p1 - p2) * factor and the target by (p2 - p1) * factor.
+         */
+        public double factor(double distanceSquared, double m1, double s1, double s2, double e) {
+            double factor;
+            if (antiCollision || logAttraction) {
+                double distance = Math.sqrt(distanceSquared);
+                if (antiCollision) {
+                    distance = distance - s1 - s2;
+                }
+                if (distance <= 0) {
+                    return 0;
+                }
+                factor = logAttraction ? -coefficient * e * Math.log(1 + distance) / distance : -coefficient * e;
+            } else {
+                factor = -coefficient * e;
+            }
+            return distributedAttraction ? factor / m1 : factor;
+        }
+    }
+
     /*
      * Repulsion force: Linear
      */
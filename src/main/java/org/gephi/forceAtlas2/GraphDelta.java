@@ -0,0 +1,54 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Edge;
+import org.gephi.model.Node;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Nodes and edges added to or removed from a graph since its last layout, see
+ * {@link ForceAtlas2#runIncremental(GraphDelta, StopCriteria)}.
+ * <p>
+ * The removed edges tell which nodes lost a neighbor. A removed node is given by its removed edges: the graph no
+ * longer knows its neighbors.
+ */
+public class GraphDelta {
+
+    private final Set<Node> addedNodes = new LinkedHashSet<>();
+    private final Set<Edge> addedEdges = new LinkedHashSet<>();
+    private final Set<Edge> removedEdges = new LinkedHashSet<>();
+
+    public GraphDelta() {
+    }
+
+    public void addNode(Node node) {
+        addedNodes.add(node);
+    }
+
+    public void addEdge(Edge edge) {
+        addedEdges.add(edge);
+    }
+
+    public void removeEdge(Edge edge) {
+        removedEdges.add(edge);
+    }
+
+    public Collection<Node> getAddedNodes() {
+        return Collections.unmodifiableSet(addedNodes);
+    }
+
+    public Collection<Edge> getAddedEdges() {
+        return Collections.unmodifiableSet(addedEdges);
+    }
+
+    public Collection<Edge> getRemovedEdges() {
+        return Collections.unmodifiableSet(removedEdges);
+    }
+
+    public boolean isEmpty() {
+        return addedNodes.isEmpty() && addedEdges.isEmpty() && removedEdges.isEmpty();
+    }
+}
@@ -0,0 +1,332 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Edge;
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Layout of a graph after a {@link GraphDelta}, moving only the nodes near the change.
+ * <p>
+ * The added nodes are placed at the center of their placed neighbors. The nodes within
+ * {@link ForceAtlas2#getIncrementalHops()} hops of an added node or of an end of an added or removed edge then
+ * run the regular iterations on a copy of their own, with their other neighbors as fixed nodes for the attraction.
+ * The rest of the graph doesn't move: it is summed once in a Barnes Hut tree that gives the far repulsion. An
+ * iteration costs <code>O(r log n)</code> for <code>r</code> moving nodes, only the setup reads the whole graph.
+ */
+class IncrementalLayout {
+
+    private final ForceAtlas2 layout;
+    private final Graph graph;
+    private final GraphDelta delta;
+    private final ExecutorService pool;
+    private final int threadCount;
+    private final Random random = new Random(42);
+
+    private Node[] nodes;
+    // Global index of the local nodes, the moving ones first then the fixed neighbors
+    private int[] localNodes;
+    private int movingCount;
+    private LayoutData local;
+    private LinearQuadtree farTree;
+    private ArrayLayoutEngine engine;
+
+    IncrementalLayout(ForceAtlas2 layout, Graph graph, GraphDelta delta, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.graph = graph;
+        this.delta = delta;
+        this.pool = pool;
+        this.threadCount = threadCount;
+    }
+
+    void initAlgo() {
+        nodes = graph.getNodes();
+        int nodeCount = nodes.length;
+        LayoutData global = LayoutData.fromGraph(graph);
+        global.buildAdjacency();
+        HashMap<Node, Integer> indices = new HashMap<>();
+        for (int n = 0; n < nodeCount; n++) {
+            indices.put(nodes[n], n);
+        }
+
+        // The ends of the change, the new nodes are placed first
+        List<Integer> seeds = new ArrayList<>();
+        boolean[] placed = new boolean[nodeCount];
+        Arrays.fill(placed, true);
+        List<Integer> added = new ArrayList<>();
+        for (Node node : delta.getAddedNodes()) {
+            Integer n = indices.get(node);
+            if (n != null) {
+                seeds.add(n);
+                if (!global.fixed[n]) {
+                    placed[n] = false;
+                    added.add(n);
+                }
+            }
+        }
+        place(global, added, placed);
+        List<Edge> edges = new ArrayList<>(delta.getAddedEdges());
+        edges.addAll(delta.getRemovedEdges());
+        for (Edge edge : edges) {
+            for (Node node : new Node[]{edge.getSource(), edge.getTarget()}) {
+                Integer n = indices.get(node);
+                if (n != null) {
+                    seeds.add(n);
+                }
+            }
+        }
+
+        // Nodes within the hops of the seeds move, their other neighbors are fixed
+        int[] start = global.adjacencyStart;
+        int[] other = global.adjacencyNode;
+        int[] hop = new int[nodeCount];
+        Arrays.fill(hop, -1);
+        int[] queue = new int[nodeCount];
+        int tail = 0;
+        for (int n : seeds) {
+            if (hop[n] < 0) {
+                hop[n] = 0;
+                queue[tail++] = n;
+            }
+        }
+        int hops = layout.getIncrementalHops();
+        for (int head = 0; head < tail; head++) {
+            int n = queue[head];
+            if (hop[n] < hops) {
+                for (int k = start[n]; k < start[n + 1]; k++) {
+                    if (hop[other[k]] < 0) {
+                        hop[other[k]] = hop[n] + 1;
+                        queue[tail++] = other[k];
+                    }
+                }
+            }
+        }
+        int[] localIndex = new int[nodeCount];
+        Arrays.fill(localIndex, -1);
+        int[] localOrder = new int[nodeCount];
+        movingCount = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            if (hop[n] >= 0 && !global.fixed[n]) {
+                localIndex[n] = movingCount;
+                localOrder[movingCount++] = n;
+            }
+        }
+        int localCount = movingCount;
+        int localEdgeCount = 0;
+        for (int i = 0; i < movingCount; i++) {
+            int n = localOrder[i];
+            for (int k = start[n]; k < start[n + 1]; k++) {
+                int n2 = other[k];
+                if (localIndex[n2] < 0) {
+                    localIndex[n2] = localCount;
+                    localOrder[localCount++] = n2;
+                }
+                // Edges between moving nodes are seen from both ends, they are taken from the lower one
+                if (localIndex[n2] >= movingCount || n < n2) {
+                    localEdgeCount++;
+                }
+            }
+        }
+        localNodes = Arrays.copyOf(localOrder, localCount);
+
+        local = new LayoutData(localCount, localEdgeCount);
+        for (int i = 0; i < localCount; i++) {
+            int n = localNodes[i];
+            local.x[i] = global.x[n];
+            local.y[i] = global.y[n];
+            local.dx[i] = global.dx[n];
+            local.dy[i] = global.dy[n];
+            local.oldDx[i] = global.oldDx[n];
+            local.oldDy[i] = global.oldDy[n];
+            local.mass[i] = global.mass[n];
+            local.size[i] = global.size[n];
+            local.fixed[i] = i >= movingCount;
+        }
+        int e = 0;
+        int[] edge = global.adjacencyEdge;
+        for (int i = 0; i < movingCount; i++) {
+            int n = localNodes[i];
+            for (int k = start[n]; k < start[n + 1]; k++) {
+                int n2 = other[k];
+                if (localIndex[n2] >= movingCount || n < n2) {
+                    local.edgeSource[e] = localIndex[global.edgeSource[edge[k]]];
+                    local.edgeTarget[e] = localIndex[global.edgeTarget[edge[k]]];
+                    local.edgeWeight[e] = global.edgeWeight[edge[k]];
+                    e++;
+                }
+            }
+        }
+
+        // The far field: the nodes that aren't local never move
+        LayoutData far = new LayoutData(nodeCount - localCount, 0);
+        int f = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            if (localIndex[n] < 0) {
+                far.x[f] = global.x[n];
+                far.y[f] = global.y[n];
+                far.mass[f] = global.mass[n];
+                far.size[f] = global.size[n];
+                f++;
+            }
+        }
+        // The trees are built on a fork-join pool, other executors build them in the calling thread
+        ForkJoinPool treePool = pool instanceof ForkJoinPool ? (ForkJoinPool) pool : null;
+        farTree = new LinearQuadtree(far);
+        farTree.build(treePool);
+
+        engine = new ArrayLayoutEngine(layout, local, null, null, pool, threadCount);
+        engine.setAdditionalRepulsion(new FarRepulsion());
+        double meanMass = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            meanMass += global.mass[n];
+        }
+        engine.setOutboundAttCompensation(nodeCount > 0 ? meanMass / nodeCount : 1);
+    }
+
+    /**
+     * Places the added nodes at the center of their placed neighbors, the ones without placed neighbors around
+     * the center of the layout.
+     */
+    private void place(LayoutData data, List<Integer> added, boolean[] placed) {
+        int[] start = data.adjacencyStart;
+        int[] other = data.adjacencyNode;
+        double length = 0;
+        int counted = 0;
+        for (int e = 0; e < data.edgeCount; e++) {
+            int source = data.edgeSource[e];
+            int target = data.edgeTarget[e];
+            if (source != target && placed[source] && placed[target]) {
+                length += Math.hypot(data.x[source] - data.x[target], data.y[source] - data.y[target]);
+                counted++;
+            }
+        }
+        double edgeLength = counted > 0 && length > 0 ? length / counted : 10;
+
+        List<Integer> pending = new ArrayList<>(added);
+        boolean progress = true;
+        while (progress && !pending.isEmpty()) {
+            progress = false;
+            List<Integer> left = new ArrayList<>();
+            for (int n : pending) {
+                double sumX = 0;
+                double sumY = 0;
+                int count = 0;
+                for (int k = start[n]; k < start[n + 1]; k++) {
+                    if (placed[other[k]]) {
+                        sumX += data.x[other[k]];
+                        sumY += data.y[other[k]];
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    setAround(data, n, sumX / count, sumY / count, 0.5 * edgeLength);
+                    placed[n] = true;
+                    progress = true;
+                } else {
+                    left.add(n);
+                }
+            }
+            pending = left;
+        }
+
+        if (!pending.isEmpty()) {
+            double centerX = 0;
+            double centerY = 0;
+            int count = 0;
+            for (int n = 0; n < data.nodeCount; n++) {
+                if (placed[n]) {
+                    centerX += data.x[n];
+                    centerY += data.y[n];
+                    count++;
+                }
+            }
+            centerX = count > 0 ? centerX / count : 0;
+            centerY = count > 0 ? centerY / count : 0;
+            double radius = 0;
+            for (int n = 0; n < data.nodeCount; n++) {
+                if (placed[n]) {
+                    radius += (data.x[n] - centerX) * (data.x[n] - centerX) + (data.y[n] - centerY) * (data.y[n] - centerY);
+                }
+            }
+            radius = count > 0 ? Math.sqrt(radius / count) : edgeLength;
+            for (int n : pending) {
+                setAround(data, n, centerX, centerY, Math.max(radius, edgeLength));
+            }
+        }
+    }
+
+    private void setAround(LayoutData data, int n, double x, double y, double radius) {
+        double angle = 2 * Math.PI * random.nextDouble();
+        double distance = radius * Math.sqrt(random.nextDouble());
+        data.x[n] = (float) (x + distance * Math.cos(angle));
+        data.y[n] = (float) (y + distance * Math.sin(angle));
+        data.dx[n] = 0;
+        data.dy[n] = 0;
+        data.oldDx[n] = 0;
+        data.oldDy[n] = 0;
+    }
+
+    void goAlgo() {
+        engine.goAlgo();
+    }
+
+    /**
+     * Writes the positions and deltas of the moving nodes to the nodes.
+     */
+    void endAlgo() {
+        if (engine == null) {
+            return;
+        }
+        for (int i = 0; i < movingCount; i++) {
+            Node n = nodes[localNodes[i]];
+            n.setX(local.x[i]);
+            n.setY(local.y[i]);
+            n.setDx((float) local.dx[i]);
+            n.setDy((float) local.dy[i]);
+            n.setOldDx((float) local.oldDx[i]);
+            n.setOldDy((float) local.oldDy[i]);
+            n.setMass(local.mass[i]);
+        }
+        engine.endAlgo();
+    }
+
+    double getSwinging() {
+        return movingCount > 0 ? engine.getTotalSwinging() / movingCount : 0;
+    }
+
+    double getTraction() {
+        return movingCount > 0 ? engine.getTotalEffectiveTraction() / movingCount : 0;
+    }
+
+
+    // Far repulsion from the tree of the rest of the graph, the engine adds the repulsion between the local nodes
+    private class FarRepulsion implements BulkRepulsionForce {
+
+        private ForceFactory.RepulsionKernel kernel;
+
+        @Override
+        public void prepare(LayoutData data) {
+            kernel = ForceFactory.getForceFactory().buildRepulsionKernel(layout.isAdjustSizes(),
+                    layout.getScalingRatio());
+        }
+
+        @Override
+        public void apply(LayoutData data, int from, int to) {
+            double theta = layout.getBarnesHutTheta();
+            int[] stack = new int[farTree.getStackSize()];
+            for (int n = from; n < to; n++) {
+                if (!data.fixed[n]) {
+                    farTree.applyForce(-1, data.x[n], data.y[n], data.mass[n], data.size[n], kernel, theta, stack,
+                            data.dx, data.dy, n, null, null);
+                }
+            }
+        }
+    }
+}
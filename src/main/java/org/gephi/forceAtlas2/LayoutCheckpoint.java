@@ -0,0 +1,251 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Layout state of a graph kept in a memory-mapped file: positions, deltas, old deltas, speed and speed
+ * efficiency, and the number of iterations done.
+ * <p>
+ * The file holds two slots written in turn, the header names the last complete one, so a process dying while
+ * a checkpoint is written leaves the previous one readable. Writes go to the page cache and survive the end of
+ * the JVM, {@link #sync()} also flushes them to the disk. Opening a checkpoint made for another node count
+ * fails, instead of overwriting it.
+ * <p>
+ * Node <code>i</code> of the state is node <code>i</code> of the graph, resuming is only meaningful with
+ * the same graph. The state doesn't hold the Barnes Hut tree nor the sleeping nodes: a resumed run with
+ * {@link ForceAtlas2#setBarnesHutRefit(Boolean) refit} starts from a rebuilt tree, and with the
+ * {@link ForceAtlas2#setActiveSet(Boolean) active set} from every node awake, so it goes on close to the
+ * interrupted run but not exactly like it. So does a run on <code>Node</code> objects. Other runs of the array
+ * layout go on exactly like the interrupted one.
+ */
+public class LayoutCheckpoint implements AutoCloseable {
+
+    private static final int MAGIC = 0x46413243;
+    private static final int VERSION = 1;
+    // magic, version, node count, last complete slot
+    private static final int HEADER_SIZE = 16;
+    // iteration, speed, speed efficiency
+    private static final int SLOT_HEADER_SIZE = 24;
+
+    private final FileChannel channel;
+    private final int nodeCount;
+    private final MappedByteBuffer header;
+    private final Slot[] slots = new Slot[2];
+
+    /**
+     * Opens or creates the checkpoint file of a graph of <code>nodeCount</code> nodes.
+     *
+     * @throws IllegalArgumentException when the file is a checkpoint of another number of nodes
+     */
+    public LayoutCheckpoint(Path file, int nodeCount) throws IOException {
+        this.nodeCount = nodeCount;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long slotSize = SLOT_HEADER_SIZE + (long) nodeCount * (2 * Float.BYTES + 4 * Double.BYTES);
+        header = map(0, HEADER_SIZE);
+        if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) != nodeCount) {
+            int stored = header.getInt(8);
+            channel.close();
+            throw new IllegalArgumentException("The checkpoint " + file + " is for " + stored + " nodes, not "
+                    + nodeCount + ".");
+        }
+        for (int s = 0; s < 2; s++) {
+            slots[s] = new Slot(HEADER_SIZE + s * slotSize);
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, nodeCount);
+            header.putInt(12, -1);
+        }
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    /**
+     * Whether the file holds a complete checkpoint.
+     */
+    public boolean hasState() {
+        return header.getInt(12) >= 0;
+    }
+
+    /**
+     * Returns the number of iterations done at the last checkpoint.
+     */
+    public long getIteration() {
+        return last().meta.getLong(0);
+    }
+
+    public double getSpeed() {
+        return last().meta.getDouble(8);
+    }
+
+    public double getSpeedEfficiency() {
+        return last().meta.getDouble(16);
+    }
+
+    private Slot last() {
+        if (!hasState()) {
+            throw new IllegalStateException("No checkpoint written yet.");
+        }
+        return slots[header.getInt(12)];
+    }
+
+    // The slot that isn't the last complete one
+    private Slot next() {
+        return slots[header.getInt(12) == 0 ? 1 : 0];
+    }
+
+    private void commit(Slot slot, long iteration, double speed, double speedEfficiency) {
+        slot.meta.putLong(0, iteration);
+        slot.meta.putDouble(8, speed);
+        slot.meta.putDouble(16, speedEfficiency);
+        header.putInt(12, slot == slots[0] ? 0 : 1);
+    }
+
+    void write(LayoutData data, long iteration, double speed, double speedEfficiency) {
+        Slot slot = next();
+        put(slot.x, data.x);
+        put(slot.y, data.y);
+        put(slot.dx, data.dx);
+        put(slot.dy, data.dy);
+        put(slot.oldDx, data.oldDx);
+        put(slot.oldDy, data.oldDy);
+        commit(slot, iteration, speed, speedEfficiency);
+    }
+
+    void write(Node[] nodes, long iteration, double speed, double speedEfficiency) {
+        Slot slot = next();
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = nodes[i];
+            slot.x.put(i, n.getX());
+            slot.y.put(i, n.getY());
+            slot.dx.put(i, n.getDx());
+            slot.dy.put(i, n.getDy());
+            slot.oldDx.put(i, n.getOldDx());
+            slot.oldDy.put(i, n.getOldDy());
+        }
+        commit(slot, iteration, speed, speedEfficiency);
+    }
+
+    void read(LayoutData data) {
+        Slot slot = last();
+        get(slot.x, data.x);
+        get(slot.y, data.y);
+        get(slot.dx, data.dx);
+        get(slot.dy, data.dy);
+        get(slot.oldDx, data.oldDx);
+        get(slot.oldDy, data.oldDy);
+    }
+
+    void read(Node[] nodes) {
+        Slot slot = last();
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = nodes[i];
+            n.setX(slot.x.get(i));
+            n.setY(slot.y.get(i));
+            n.setDx((float) slot.dx.get(i));
+            n.setDy((float) slot.dy.get(i));
+            n.setOldDx((float) slot.oldDx.get(i));
+            n.setOldDy((float) slot.oldDy.get(i));
+        }
+    }
+
+    // The columns are never moved, their duplicates start at 0
+    private void put(FloatBuffer column, float[] values) {
+        column.duplicate().put(values, 0, nodeCount);
+    }
+
+    private void put(DoubleBuffer column, double[] values) {
+        column.duplicate().put(values, 0, nodeCount);
+    }
+
+    private void get(FloatBuffer column, float[] values) {
+        column.duplicate().get(values, 0, nodeCount);
+    }
+
+    private void get(DoubleBuffer column, double[] values) {
+        column.duplicate().get(values, 0, nodeCount);
+    }
+
+    /**
+     * Flushes the written checkpoints to the disk.
+     */
+    public void sync() {
+        header.force();
+        for (Slot slot : slots) {
+            slot.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    // Each column is mapped on its own, so a slot may be larger than a single mapping
+    private class Slot {
+
+        private final MappedByteBuffer meta;
+        private final MappedByteBuffer[] mappings = new MappedByteBuffer[6];
+        private final FloatBuffer x;
+        private final FloatBuffer y;
+        private final DoubleBuffer dx;
+        private final DoubleBuffer dy;
+        private final DoubleBuffer oldDx;
+        private final DoubleBuffer oldDy;
+
+        Slot(long position) throws IOException {
+            meta = map(position, SLOT_HEADER_SIZE);
+            long offset = position + SLOT_HEADER_SIZE;
+            long floatColumn = (long) nodeCount * Float.BYTES;
+            long doubleColumn = (long) nodeCount * Double.BYTES;
+            mappings[0] = map(offset, floatColumn);
+            mappings[1] = map(offset + floatColumn, floatColumn);
+            offset += 2 * floatColumn;
+            for (int c = 2; c < 6; c++) {
+                mappings[c] = map(offset, doubleColumn);
+                offset += doubleColumn;
+            }
+            x = floats(mappings[0]);
+            y = floats(mappings[1]);
+            dx = doubles(mappings[2]);
+            dy = doubles(mappings[3]);
+            oldDx = doubles(mappings[4]);
+            oldDy = doubles(mappings[5]);
+        }
+
+        private FloatBuffer floats(ByteBuffer buffer) {
+            return buffer.asFloatBuffer();
+        }
+
+        private DoubleBuffer doubles(ByteBuffer buffer) {
+            return buffer.asDoubleBuffer();
+        }
+
+        void force() {
+            meta.force();
+            for (MappedByteBuffer mapping : mappings) {
+                mapping.force();
+            }
+        }
+    }
+}
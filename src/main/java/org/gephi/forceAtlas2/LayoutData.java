@@ -0,0 +1,326 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Edge;
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Structure-of-arrays copy of the layout state of a graph.
+ * <p>
+ * Node <code>i</code> of every node column is the node at index <code>i</code> of the
+ * <code>Node[]</code> the data was read from. Columns may be longer than
+ * {@link #getNodeCount()} / {@link #getEdgeCount()}, loops must use the counts. The depth columns of the 3D
+ * layout are only there after {@link #readZ(Node[])}.
+ */
+public class LayoutData {
+
+    int nodeCount;
+    float[] x;
+    float[] y;
+    double[] dx;
+    double[] dy;
+    double[] oldDx;
+    double[] oldDy;
+    float[] mass;
+    float[] size;
+    boolean[] fixed;
+
+    // Depth columns, kept across resets but only in use when threeDimensional is set
+    boolean threeDimensional;
+    float[] z;
+    double[] dz;
+    double[] oldDz;
+
+    int edgeCount;
+    int[] edgeSource;
+    int[] edgeTarget;
+    double[] edgeWeight;
+
+    // Compressed sparse row view of the edges, built on demand: the entries of node n are
+    // [adjacencyStart[n], adjacencyStart[n + 1]), each one giving the other node and the edge.
+    int[] adjacencyStart;
+    int[] adjacencyNode;
+    int[] adjacencyEdge;
+    private boolean adjacencyBuilt;
+
+    public LayoutData(int nodeCount, int edgeCount) {
+        this.x = new float[0];
+        this.edgeSource = new int[0];
+        reset(nodeCount, edgeCount);
+    }
+
+    /**
+     * Sets the node and edge counts, growing the columns when they are too short. The content of the columns
+     * is left as is and the adjacency must be built again, its arrays are reused when long enough. The data is
+     * back to 2D.
+     */
+    public void reset(int nodeCount, int edgeCount) {
+        this.nodeCount = nodeCount;
+        this.threeDimensional = false;
+        if (x.length < nodeCount) {
+            this.x = new float[nodeCount];
+            this.y = new float[nodeCount];
+            this.dx = new double[nodeCount];
+            this.dy = new double[nodeCount];
+            this.oldDx = new double[nodeCount];
+            this.oldDy = new double[nodeCount];
+            this.mass = new float[nodeCount];
+            this.size = new float[nodeCount];
+            this.fixed = new boolean[nodeCount];
+        }
+
+        this.edgeCount = edgeCount;
+        if (edgeSource.length < edgeCount) {
+            this.edgeSource = new int[edgeCount];
+            this.edgeTarget = new int[edgeCount];
+            this.edgeWeight = new double[edgeCount];
+        }
+        this.adjacencyBuilt = false;
+    }
+
+    /**
+     * Copies the nodes and edges of a graph, masses are initialised to <code>1 + degree</code>.
+     */
+    public static LayoutData fromGraph(Graph graph) {
+        return fromGraph(graph, null);
+    }
+
+    /**
+     * Same as {@link #fromGraph(Graph)}, but fills <code>reuse</code> when not <code>null</code>, growing its
+     * columns as needed.
+     */
+    public static LayoutData fromGraph(Graph graph, LayoutData reuse) {
+        return fromGraph(graph, reuse, new HashMap<>());
+    }
+
+    /**
+     * Same as {@link #fromGraph(Graph, LayoutData)}, with the map from the nodes to their index, cleared first.
+     */
+    static LayoutData fromGraph(Graph graph, LayoutData reuse, HashMap<Node, Integer> indices) {
+        Node[] nodes = graph.getNodes();
+        Edge[] edges = graph.getEdges();
+        LayoutData data = reuse;
+        if (data == null) {
+            data = new LayoutData(nodes.length, edges.length);
+        } else {
+            data.reset(nodes.length, edges.length);
+        }
+
+        indices.clear();
+        for (int i = 0; i < nodes.length; i++) {
+            Node n = nodes[i];
+            indices.put(n, i);
+            data.x[i] = n.getX();
+            data.y[i] = n.getY();
+            data.dx[i] = n.getDx();
+            data.dy[i] = n.getDy();
+            data.oldDx[i] = n.getOldDx();
+            data.oldDy[i] = n.getOldDy();
+            data.mass[i] = 1 + graph.getDegree(n);
+            data.size[i] = n.getSize();
+            data.fixed[i] = n.isFixed();
+        }
+        for (int e = 0; e < edges.length; e++) {
+            data.edgeSource[e] = indices.get(edges[e].getSource());
+            data.edgeTarget[e] = indices.get(edges[e].getTarget());
+            data.edgeWeight[e] = edges[e].getWeight();
+        }
+        return data;
+    }
+
+    /**
+     * Adds the depth columns, read from the nodes, so the layout runs in 3D. The depth deltas start at 0.
+     */
+    public void readZ(Node[] nodes) {
+        if (z == null || z.length < nodeCount) {
+            z = new float[nodeCount];
+            dz = new double[nodeCount];
+            oldDz = new double[nodeCount];
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            z[i] = nodes[i].getZ();
+            dz[i] = 0;
+            oldDz[i] = 0;
+        }
+        threeDimensional = true;
+    }
+
+    /**
+     * Builds the compressed sparse row view of the edges, in which every edge is listed under both of its
+     * nodes. Self loops are left out, they don't move their node.
+     */
+    public void buildAdjacency() {
+        int[] start = adjacencyStart != null && adjacencyStart.length > nodeCount ? adjacencyStart
+                : new int[nodeCount + 1];
+        Arrays.fill(start, 0, nodeCount + 1, 0);
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeSource[e] != edgeTarget[e]) {
+                start[edgeSource[e] + 1]++;
+                start[edgeTarget[e] + 1]++;
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            start[n + 1] += start[n];
+        }
+        int[] next = new int[nodeCount];
+        System.arraycopy(start, 0, next, 0, nodeCount);
+        int entryCount = start[nodeCount];
+        int[] node = adjacencyNode != null && adjacencyNode.length >= entryCount ? adjacencyNode : new int[entryCount];
+        int[] edge = adjacencyEdge != null && adjacencyEdge.length >= entryCount ? adjacencyEdge : new int[entryCount];
+        for (int e = 0; e < edgeCount; e++) {
+            int source = edgeSource[e];
+            int target = edgeTarget[e];
+            if (source != target) {
+                node[next[source]] = target;
+                edge[next[source]++] = e;
+                node[next[target]] = source;
+                edge[next[target]++] = e;
+            }
+        }
+        adjacencyStart = start;
+        adjacencyNode = node;
+        adjacencyEdge = edge;
+        adjacencyBuilt = true;
+    }
+
+    public boolean hasAdjacency() {
+        return adjacencyBuilt;
+    }
+
+    /**
+     * Writes positions, deltas and masses back to the nodes they were read from.
+     */
+    public void writeTo(Node[] nodes) {
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = nodes[i];
+            n.setX(x[i]);
+            n.setY(y[i]);
+            if (threeDimensional) {
+                n.setZ(z[i]);
+            }
+            n.setDx((float) dx[i]);
+            n.setDy((float) dy[i]);
+            n.setOldDx((float) oldDx[i]);
+            n.setOldDy((float) oldDy[i]);
+            n.setMass(mass[i]);
+        }
+    }
+
+    /**
+     * Reads the current positions, deltas and sizes of the nodes read by {@link #fromGraph(Graph)}, leaving the
+     * masses and the edges as they are.
+     */
+    public void readNodes(Node[] nodes) {
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = nodes[i];
+            x[i] = n.getX();
+            y[i] = n.getY();
+            dx[i] = n.getDx();
+            dy[i] = n.getDy();
+            oldDx[i] = n.getOldDx();
+            oldDy[i] = n.getOldDy();
+            size[i] = n.getSize();
+            fixed[i] = n.isFixed();
+        }
+    }
+
+    /**
+     * Reads the current deltas of the nodes, used after code working on <code>Node</code> objects shifted them.
+     */
+    public void readDeltas(Node[] nodes) {
+        for (int i = 0; i < nodeCount; i++) {
+            dx[i] = nodes[i].getDx();
+            dy[i] = nodes[i].getDy();
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public float[] getX() {
+        return x;
+    }
+
+    public float[] getY() {
+        return y;
+    }
+
+    public boolean isThreeDimensional() {
+        return threeDimensional;
+    }
+
+    /**
+     * Returns the depths, <code>null</code> or stale unless {@link #isThreeDimensional()}.
+     */
+    public float[] getZ() {
+        return z;
+    }
+
+    public double[] getDx() {
+        return dx;
+    }
+
+    public double[] getDy() {
+        return dy;
+    }
+
+    public double[] getDz() {
+        return dz;
+    }
+
+    public double[] getOldDx() {
+        return oldDx;
+    }
+
+    public double[] getOldDy() {
+        return oldDy;
+    }
+
+    public double[] getOldDz() {
+        return oldDz;
+    }
+
+    public float[] getMass() {
+        return mass;
+    }
+
+    public float[] getSize() {
+        return size;
+    }
+
+    public boolean[] getFixed() {
+        return fixed;
+    }
+
+    public int[] getEdgeSource() {
+        return edgeSource;
+    }
+
+    public int[] getEdgeTarget() {
+        return edgeTarget;
+    }
+
+    public double[] getEdgeWeight() {
+        return edgeWeight;
+    }
+
+    public int[] getAdjacencyStart() {
+        return adjacencyStart;
+    }
+
+    public int[] getAdjacencyNode() {
+        return adjacencyNode;
+    }
+
+    public int[] getAdjacencyEdge() {
+        return adjacencyEdge;
+    }
+}
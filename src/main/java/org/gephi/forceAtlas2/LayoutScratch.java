@@ -0,0 +1,42 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Edge;
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Columns, node indices and array engine kept from one layout to the next, so the graphs of a batch only allocate
+ * when a graph is bigger than all the previous ones. The engine lets go of a layout at its end, the scratch then
+ * holds no node or edge. Not thread safe, one layout at a time.
+ */
+class LayoutScratch {
+
+    private LayoutData data;
+    private final HashMap<Node, Integer> indices = new HashMap<>();
+    private ArrayLayoutEngine engine;
+
+    /**
+     * Copies the graph into the reused columns, see {@link LayoutData#fromGraph(Graph, LayoutData)}.
+     */
+    LayoutData read(Graph graph) {
+        data = LayoutData.fromGraph(graph, data, indices);
+        indices.clear();
+        return data;
+    }
+
+    /**
+     * Returns the engine over the columns of the last {@link #read(Graph)}, started over for the given layout.
+     */
+    ArrayLayoutEngine getEngine(ForceAtlas2 layout, Node[] nodes, Edge[] edges, ExecutorService pool,
+                                int threadCount) {
+        if (engine == null) {
+            engine = new ArrayLayoutEngine(layout, data, nodes, edges, pool, threadCount);
+        } else {
+            engine.reset(layout, nodes, edges, pool, threadCount);
+        }
+        return engine;
+    }
+}
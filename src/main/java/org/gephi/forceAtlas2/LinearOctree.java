@@ -0,0 +1,108 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Barnes Hut optimization of the 3D layout, as a linear octree over the {@link LayoutData} columns, see
+ * {@link LinearTree}. The codes interleave 10 bits per axis.
+ */
+class LinearOctree extends LinearTree {
+
+    LinearOctree(LayoutData data) {
+        super(data, 3, 10);
+    }
+
+    @Override
+    protected float[][] positions() {
+        return new float[][]{data.x, data.y, data.z};
+    }
+
+    /**
+     * Adds the repulsion of the other nodes of the tree to the deltas of node <code>n</code>, see
+     * {@link LinearQuadtree#applyForce(int, ForceFactory.RepulsionKernel, double, int[], double[], double[])}.
+     *
+     * @param other where the nodes reached one by one get the opposite push, <code>{dx, dy, dz}</code>, or
+     *              <code>null</code>
+     */
+    void applyForce(int n, ForceFactory.RepulsionKernel kernel, double theta, int[] stack, double[][] other) {
+        if (cellCount == 0) {
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] z = data.z;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double[] centerX = cellMassCenter[0];
+        double[] centerY = cellMassCenter[1];
+        double[] centerZ = cellMassCenter[2];
+        double nodeX = x[n];
+        double nodeY = y[n];
+        double nodeZ = z[n];
+        double nodeMass = mass[n];
+        double nodeSize = size[n];
+        double shiftX = 0;
+        double shiftY = 0;
+        double shiftZ = 0;
+        double[] otherDx = other != null ? other[0] : null;
+        double[] otherDy = other != null ? other[1] : null;
+        double[] otherDz = other != null ? other[2] : null;
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            boolean far = false;
+            if (cellEnd[cell] - cellStart[cell] > 1) {
+                double xDist = nodeX - centerX[cell];
+                double yDist = nodeY - centerY[cell];
+                double zDist = nodeZ - centerZ[cell];
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                if (distance * theta > cellSize[cell]) {
+                    double factor = kernel.regionFactor(distance, nodeMass, cellMass[cell]);
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                    shiftZ += zDist * factor;
+                    far = true;
+                } else if (cellChildCount[cell] > 0) {
+                    int first = cellFirstChild[cell];
+                    for (int child = first + cellChildCount[cell] - 1; child >= first; child--) {
+                        stack[top++] = child;
+                    }
+                    far = true;
+                }
+            }
+            if (!far) {
+                // Single node, or leaf of nodes that shared a position at build time
+                for (int i = cellStart[cell]; i < cellEnd[cell]; i++) {
+                    int regionNode = order[i];
+                    if (regionNode != n) {
+                        double xDist = nodeX - x[regionNode];
+                        double yDist = nodeY - y[regionNode];
+                        double zDist = nodeZ - z[regionNode];
+                        double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                        double factor = kernel.nodeFactor(distance, nodeMass, mass[regionNode], nodeSize, size[regionNode]);
+                        shiftX += xDist * factor;
+                        shiftY += yDist * factor;
+                        shiftZ += zDist * factor;
+                        if (otherDx != null) {
+                            otherDx[regionNode] -= xDist * factor;
+                            otherDy[regionNode] -= yDist * factor;
+                            otherDz[regionNode] -= zDist * factor;
+                        }
+                    }
+                }
+            }
+        }
+        data.dx[n] += shiftX;
+        data.dy[n] += shiftY;
+        data.dz[n] += shiftZ;
+    }
+
+    @Override
+    protected int spread(int v) {
+        v = (v | (v << 16)) & 0x030000FF;
+        v = (v | (v << 8)) & 0x0300F00F;
+        v = (v | (v << 4)) & 0x030C30C3;
+        v = (v | (v << 2)) & 0x09249249;
+        return v;
+    }
+}
@@ -0,0 +1,114 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Barnes Hut optimization over {@link LayoutData} columns, as a linear quadtree, see {@link LinearTree}. The codes
+ * interleave 15 bits per axis.
+ */
+class LinearQuadtree extends LinearTree {
+
+    LinearQuadtree(LayoutData data) {
+        super(data, 2, 15);
+    }
+
+    @Override
+    protected float[][] positions() {
+        return new float[][]{data.x, data.y};
+    }
+
+    /**
+     * Adds the repulsion of the other nodes of the tree to the deltas of node <code>n</code>. As with the
+     * <code>Region</code> tree, the nodes reached one by one are pushed back, in <code>otherDx</code> and
+     * <code>otherDy</code>, unless they are <code>null</code>.
+     */
+    void applyForce(int n, ForceFactory.RepulsionKernel kernel, double theta, int[] stack, double[] otherDx,
+                    double[] otherDy) {
+        applyForce(n, data.x[n], data.y[n], data.mass[n], data.size[n], kernel, theta, stack, data.dx, data.dy, n,
+                otherDx, otherDy);
+    }
+
+    /**
+     * Adds the repulsion of the nodes of the tree, but <code>self</code>, on a node that may be outside of the
+     * tree, to <code>dx[target]</code> and <code>dy[target]</code>.
+     *
+     * @param self    the index of the node in the tree, or -1
+     * @param otherDx where the nodes reached one by one get the opposite push, or <code>null</code>
+     */
+    void applyForce(int self, double nodeX, double nodeY, double nodeMass, double nodeSize,
+                    ForceFactory.RepulsionKernel kernel, double theta, int[] stack, double[] dx, double[] dy,
+                    int target, double[] otherDx, double[] otherDy) {
+        if (cellCount == 0) {
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double[] centerX = cellMassCenter[0];
+        double[] centerY = cellMassCenter[1];
+        double shiftX = 0;
+        double shiftY = 0;
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            if (cellEnd[cell] - cellStart[cell] == 1) {
+                int regionNode = order[cellStart[cell]];
+                if (regionNode != self) {
+                    double xDist = nodeX - x[regionNode];
+                    double yDist = nodeY - y[regionNode];
+                    double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                    double factor = kernel.nodeFactor(distance, nodeMass, mass[regionNode], nodeSize, size[regionNode]);
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                    if (otherDx != null) {
+                        otherDx[regionNode] -= xDist * factor;
+                        otherDy[regionNode] -= yDist * factor;
+                    }
+                }
+            } else {
+                double xDist = nodeX - centerX[cell];
+                double yDist = nodeY - centerY[cell];
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                if (distance * theta > cellSize[cell]) {
+                    double factor = kernel.regionFactor(distance, nodeMass, cellMass[cell]);
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                } else if (cellChildCount[cell] > 0) {
+                    int first = cellFirstChild[cell];
+                    for (int child = first + cellChildCount[cell] - 1; child >= first; child--) {
+                        stack[top++] = child;
+                    }
+                } else {
+                    // Leaf of nodes that shared a position at build time
+                    for (int i = cellStart[cell]; i < cellEnd[cell]; i++) {
+                        int regionNode = order[i];
+                        if (regionNode != self) {
+                            double nodeXDist = nodeX - x[regionNode];
+                            double nodeYDist = nodeY - y[regionNode];
+                            double nodeDistance = Math.sqrt(nodeXDist * nodeXDist + nodeYDist * nodeYDist);
+                            double factor = kernel.nodeFactor(nodeDistance, nodeMass, mass[regionNode], nodeSize, size[regionNode]);
+                            shiftX += nodeXDist * factor;
+                            shiftY += nodeYDist * factor;
+                            if (otherDx != null) {
+                                otherDx[regionNode] -= nodeXDist * factor;
+                                otherDy[regionNode] -= nodeYDist * factor;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        dx[target] += shiftX;
+        dy[target] += shiftY;
+    }
+
+    @Override
+    protected int spread(int v) {
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+}
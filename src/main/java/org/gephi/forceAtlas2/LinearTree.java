@@ -0,0 +1,597 @@
+package org.gephi.forceAtlas2;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Barnes Hut tree over {@link LayoutData} columns, as a linear tree in <code>dimensions</code> dimensions.
+ * <p>
+ * Nodes are sorted by the Morton code of their quantized position, so every cell of the tree is a
+ * contiguous range of {@link #order}. Cells live in flat arrays: a cell's children are stored next to
+ * each other and their parent is always stored before them. Levels where all nodes of a cell fall in
+ * the same child are skipped, every internal cell has at least two children and a tree over
+ * <code>n</code> nodes has less than <code>2n</code> cells. The arrays are reused from one build to the next.
+ * <p>
+ * Between two builds, {@link #refit(ForkJoinPool, double)} keeps the topology and only updates masses,
+ * mass centers and sizes bottom-up from the current positions. Both run on the given pool, or in the calling
+ * thread when it is <code>null</code>.
+ */
+abstract class LinearTree {
+
+    private static final int FORK_THRESHOLD = 2048;
+
+    protected final LayoutData data;
+    private final int dimensions;
+    private final int maxCoordinate;
+    private long[] keys = new long[0];
+    protected int[] order = new int[0];
+    private int[] codes = new int[0];
+
+    protected int cellCount;
+    protected int[] cellStart = new int[0];
+    protected int[] cellEnd = new int[0];
+    protected int[] cellFirstChild = new int[0];
+    protected int[] cellChildCount = new int[0];
+    protected double[] cellMass = new double[0];
+    // One column per axis
+    protected double[][] cellMassCenter;
+    protected double[] cellSize = new double[0];
+
+    private int builtNodeCount;
+    private float[][] built;
+    private double[] escapeDistance = new double[0];
+
+    private final AtomicInteger nextCell = new AtomicInteger();
+    private final AtomicInteger depth = new AtomicInteger();
+    // Whether the running build or refit forks its tasks
+    private boolean parallel;
+
+    /**
+     * @param bits bits of the quantized coordinates on each axis, <code>dimensions * bits</code> at most 31
+     */
+    LinearTree(LayoutData data, int dimensions, int bits) {
+        this.data = data;
+        this.dimensions = dimensions;
+        this.maxCoordinate = (1 << bits) - 1;
+        this.cellMassCenter = new double[dimensions][0];
+        this.built = new float[dimensions][0];
+    }
+
+    /**
+     * Spreads the bits of a quantized coordinate, leaving <code>dimensions - 1</code> zeros between them.
+     */
+    protected abstract int spread(int v);
+
+    /**
+     * Position columns of the nodes, one per axis.
+     */
+    protected abstract float[][] positions();
+
+    /**
+     * Rebuilds the tree from the current positions, using the pool to encode, sort and build, or the calling
+     * thread when the pool is <code>null</code>.
+     */
+    void build(ForkJoinPool pool) {
+        int nodeCount = data.nodeCount;
+        parallel = pool != null;
+        ensureCapacity(nodeCount);
+        nextCell.set(0);
+        depth.set(1);
+        cellCount = 0;
+        builtNodeCount = nodeCount;
+        if (nodeCount == 0) {
+            return;
+        }
+
+        float[][] positions = positions();
+        float[] bounds;
+        if (parallel) {
+            bounds = pool.invoke(new BoundsTask(positions, 0, nodeCount));
+            setScale(bounds);
+            pool.invoke(new EncodeTask(positions, 0, nodeCount, bounds));
+            // Sorting inside a task of the pool keeps the sort on it, instead of the common pool
+            pool.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(keys, 0, nodeCount)));
+            pool.invoke(new DecodeTask(0, nodeCount));
+        } else {
+            bounds = bounds(positions, null, 0, nodeCount);
+            setScale(bounds);
+            encode(positions, 0, nodeCount, bounds);
+            Arrays.sort(keys, 0, nodeCount);
+            decode(0, nodeCount);
+        }
+
+        nextCell.set(1);
+        cellStart[0] = 0;
+        cellEnd[0] = nodeCount;
+        if (parallel) {
+            pool.invoke(new BuildTask(positions, 0, 1));
+        } else {
+            buildCell(positions, 0, 1);
+        }
+        cellCount = nextCell.get();
+        if (cellChildCount[0] == 0) {
+            for (int i = 0; i < nodeCount; i++) {
+                escapeDistance[i] = Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * Updates the cells from the current positions without changing which nodes they contain.
+     * <p>
+     * A node escapes its cell when it has moved, since the last build, by more than half the size of
+     * the cell containing its leaf. When more than <code>tolerance</code> of the nodes escaped,
+     * nothing is updated and false is returned: the tree must be rebuilt.
+     */
+    boolean refit(ForkJoinPool pool, double tolerance) {
+        int nodeCount = data.nodeCount;
+        if (cellCount == 0 || builtNodeCount != nodeCount) {
+            return false;
+        }
+        parallel = pool != null;
+        float[][] positions = positions();
+        int escaped = parallel ? pool.invoke(new EscapeCountTask(positions, 0, nodeCount))
+                : countEscaped(positions, 0, nodeCount);
+        if (escaped > tolerance * nodeCount) {
+            return false;
+        }
+        if (parallel) {
+            pool.invoke(new RefitTask(positions, 0));
+        } else {
+            refitCell(positions, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the last build, so the next {@link #refit(ForkJoinPool, double)} fails. Needed when the data
+     * now holds another graph.
+     */
+    void invalidate() {
+        cellCount = 0;
+    }
+
+    /**
+     * Size of the stack a traversal needs, valid until the next build.
+     */
+    int getStackSize() {
+        return ((1 << dimensions) - 1) * depth.get() + 2;
+    }
+
+    int getCellCount() {
+        return cellCount;
+    }
+
+    private void ensureCapacity(int nodeCount) {
+        if (order.length < nodeCount) {
+            keys = new long[nodeCount];
+            order = new int[nodeCount];
+            codes = new int[nodeCount];
+            int cells = 2 * nodeCount;
+            cellStart = new int[cells];
+            cellEnd = new int[cells];
+            cellFirstChild = new int[cells];
+            cellChildCount = new int[cells];
+            cellMass = new double[cells];
+            cellSize = new double[cells];
+            for (int axis = 0; axis < dimensions; axis++) {
+                cellMassCenter[axis] = new double[cells];
+                built[axis] = new float[nodeCount];
+            }
+            escapeDistance = new double[nodeCount];
+        }
+    }
+
+    private int mortonCode(float[][] positions, int n, float[] bounds) {
+        int code = 0;
+        float scale = bounds[2 * dimensions];
+        for (int axis = 0; axis < dimensions; axis++) {
+            int q = (int) (((double) positions[axis][n] - bounds[axis]) * scale);
+            q = Math.max(0, Math.min(maxCoordinate, q));
+            code |= spread(q) << (dimensions - 1 - axis);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the minimums, then the maximums of each axis and the scale for the positions of
+     * <code>order[from, to)</code>, or of nodes <code>[from, to)</code> when <code>order</code> is null.
+     */
+    private float[] bounds(float[][] positions, int[] order, int from, int to) {
+        float[] bounds = new float[2 * dimensions + 1];
+        Arrays.fill(bounds, 0, dimensions, Float.POSITIVE_INFINITY);
+        Arrays.fill(bounds, dimensions, 2 * dimensions, Float.NEGATIVE_INFINITY);
+        for (int i = from; i < to; i++) {
+            int n = order == null ? i : order[i];
+            for (int axis = 0; axis < dimensions; axis++) {
+                bounds[axis] = Math.min(bounds[axis], positions[axis][n]);
+                bounds[axis + dimensions] = Math.max(bounds[axis + dimensions], positions[axis][n]);
+            }
+        }
+        return bounds;
+    }
+
+    // Cells must stay square, elongated cells are never far enough for the Barnes Hut criterion
+    private void setScale(float[] bounds) {
+        double extent = 0;
+        for (int axis = 0; axis < dimensions; axis++) {
+            extent = Math.max(extent, (double) bounds[axis + dimensions] - bounds[axis]);
+        }
+        bounds[2 * dimensions] = extent > 0 ? (float) (maxCoordinate / extent) : 0;
+    }
+
+    private final class BoundsTask extends RecursiveTask<float[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] positions;
+        private final int from;
+        private final int to;
+
+        BoundsTask(float[][] positions, int from, int to) {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected float[] compute() {
+            float[] bounds;
+            if (to - from <= FORK_THRESHOLD) {
+                bounds = bounds(positions, null, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                BoundsTask left = new BoundsTask(positions, from, middle);
+                left.fork();
+                float[] right = new BoundsTask(positions, middle, to).compute();
+                bounds = left.join();
+                for (int axis = 0; axis < dimensions; axis++) {
+                    bounds[axis] = Math.min(bounds[axis], right[axis]);
+                    bounds[axis + dimensions] = Math.max(bounds[axis + dimensions], right[axis + dimensions]);
+                }
+            }
+            return bounds;
+        }
+    }
+
+    private final class EncodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] positions;
+        private final int from;
+        private final int to;
+        private final float[] bounds;
+
+        EncodeTask(float[][] positions, int from, int to, float[] bounds) {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+            this.bounds = bounds;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                encode(positions, from, to, bounds);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EncodeTask(positions, from, middle, bounds),
+                        new EncodeTask(positions, middle, to, bounds));
+            }
+        }
+    }
+
+    private void encode(float[][] positions, int from, int to, float[] bounds) {
+        for (int n = from; n < to; n++) {
+            keys[n] = ((long) mortonCode(positions, n, bounds) << 32) | n;
+        }
+    }
+
+    private final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        DecodeTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                decode(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(from, middle), new DecodeTask(middle, to));
+            }
+        }
+    }
+
+    private void decode(int from, int to) {
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i];
+            codes[i] = (int) (keys[i] >>> 32);
+        }
+    }
+
+    private final class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] positions;
+        private final int cell;
+        private final int level;
+
+        BuildTask(float[][] positions, int cell, int level) {
+            this.positions = positions;
+            this.cell = cell;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            buildCell(positions, cell, level);
+        }
+    }
+
+    private void buildCell(float[][] positions, int cell, int level) {
+        int start = cellStart[cell];
+        int end = cellEnd[cell];
+        cellChildCount[cell] = 0;
+        if (end - start == 1 || (codes[start] == codes[end - 1] && !refine(positions, start, end))) {
+            // Single node, or all the nodes of the cell are at the same position
+            for (int i = start; i < end; i++) {
+                for (int axis = 0; axis < dimensions; axis++) {
+                    built[axis][order[i]] = positions[axis][order[i]];
+                }
+            }
+            updateLeaf(positions, cell);
+            depth.accumulateAndGet(level, Math::max);
+            return;
+        }
+
+        // Split on the highest child digit that differs inside the cell
+        int shift = (31 - Integer.numberOfLeadingZeros(codes[start] ^ codes[end - 1])) / dimensions * dimensions;
+        int prefix = codes[start] & ~((1 << (shift + dimensions)) - 1);
+        int digits = 1 << dimensions;
+        int[] bounds = new int[digits + 1];
+        bounds[0] = start;
+        for (int digit = 1; digit < digits; digit++) {
+            bounds[digit] = lowerBound(bounds[digit - 1], end, prefix | (digit << shift));
+        }
+        bounds[digits] = end;
+
+        int childCount = 0;
+        for (int digit = 0; digit < digits; digit++) {
+            if (bounds[digit + 1] > bounds[digit]) {
+                childCount++;
+            }
+        }
+        int first = nextCell.getAndAdd(childCount);
+        int child = first;
+        for (int digit = 0; digit < digits; digit++) {
+            if (bounds[digit + 1] > bounds[digit]) {
+                cellStart[child] = bounds[digit];
+                cellEnd[child] = bounds[digit + 1];
+                child++;
+            }
+        }
+        cellFirstChild[cell] = first;
+        cellChildCount[cell] = childCount;
+
+        if (parallel && end - start > FORK_THRESHOLD) {
+            BuildTask[] tasks = new BuildTask[childCount];
+            for (int i = 0; i < childCount; i++) {
+                tasks[i] = new BuildTask(positions, first + i, level + 1);
+            }
+            RecursiveAction.invokeAll(tasks);
+        } else {
+            for (int i = 0; i < childCount; i++) {
+                buildCell(positions, first + i, level + 1);
+            }
+        }
+
+        updateFromChildren(cell);
+
+        for (int c = first; c < first + childCount; c++) {
+            if (cellChildCount[c] == 0) {
+                for (int i = cellStart[c]; i < cellEnd[c]; i++) {
+                    escapeDistance[order[i]] = cellSize[cell] / 2;
+                }
+            }
+        }
+    }
+
+    private void updateLeaf(float[][] positions, int cell) {
+        int start = cellStart[cell];
+        int end = cellEnd[cell];
+        if (end - start == 1) {
+            int n = order[start];
+            cellMass[cell] = data.mass[n];
+            for (int axis = 0; axis < dimensions; axis++) {
+                cellMassCenter[axis][cell] = positions[axis][n];
+            }
+            cellSize[cell] = 0;
+            return;
+        }
+        double mass = 0;
+        double[] massCenter = new double[dimensions];
+        for (int i = start; i < end; i++) {
+            int n = order[i];
+            mass += data.mass[n];
+            for (int axis = 0; axis < dimensions; axis++) {
+                massCenter[axis] += positions[axis][n] * data.mass[n];
+            }
+        }
+        for (int axis = 0; axis < dimensions; axis++) {
+            massCenter[axis] /= mass;
+        }
+        double size = 0;
+        for (int i = start; i < end; i++) {
+            int n = order[i];
+            double squares = 0;
+            for (int axis = 0; axis < dimensions; axis++) {
+                double distance = positions[axis][n] - massCenter[axis];
+                squares += distance * distance;
+            }
+            size = Math.max(size, 2 * Math.sqrt(squares));
+        }
+        cellMass[cell] = mass;
+        for (int axis = 0; axis < dimensions; axis++) {
+            cellMassCenter[axis][cell] = massCenter[axis];
+        }
+        cellSize[cell] = size;
+    }
+
+    private void updateFromChildren(int cell) {
+        int first = cellFirstChild[cell];
+        int end = first + cellChildCount[cell];
+        double mass = 0;
+        for (int c = first; c < end; c++) {
+            mass += cellMass[c];
+        }
+        for (int axis = 0; axis < dimensions; axis++) {
+            double[] center = cellMassCenter[axis];
+            double massSum = 0;
+            for (int c = first; c < end; c++) {
+                massSum += center[c] * cellMass[c];
+            }
+            center[cell] = massSum / mass;
+        }
+        // Size, bounded by the children's sizes
+        double size = Double.MIN_VALUE;
+        for (int c = first; c < end; c++) {
+            double squares = 0;
+            for (int axis = 0; axis < dimensions; axis++) {
+                double distance = cellMassCenter[axis][c] - cellMassCenter[axis][cell];
+                squares += distance * distance;
+            }
+            size = Math.max(size, 2 * Math.sqrt(squares) + cellSize[c]);
+        }
+        cellMass[cell] = mass;
+        cellSize[cell] = size;
+    }
+
+    private final class RefitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] positions;
+        private final int cell;
+
+        RefitTask(float[][] positions, int cell) {
+            this.positions = positions;
+            this.cell = cell;
+        }
+
+        @Override
+        protected void compute() {
+            refitCell(positions, cell);
+        }
+    }
+
+    private void refitCell(float[][] positions, int cell) {
+        int childCount = cellChildCount[cell];
+        if (childCount == 0) {
+            updateLeaf(positions, cell);
+            return;
+        }
+        int first = cellFirstChild[cell];
+        if (parallel && cellEnd[cell] - cellStart[cell] > FORK_THRESHOLD) {
+            RefitTask[] tasks = new RefitTask[childCount];
+            for (int i = 0; i < childCount; i++) {
+                tasks[i] = new RefitTask(positions, first + i);
+            }
+            RecursiveAction.invokeAll(tasks);
+        } else {
+            for (int i = 0; i < childCount; i++) {
+                refitCell(positions, first + i);
+            }
+        }
+        updateFromChildren(cell);
+    }
+
+    private final class EscapeCountTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] positions;
+        private final int from;
+        private final int to;
+
+        EscapeCountTask(float[][] positions, int from, int to) {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                return countEscaped(positions, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            EscapeCountTask left = new EscapeCountTask(positions, from, middle);
+            left.fork();
+            int right = new EscapeCountTask(positions, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    private int countEscaped(float[][] positions, int from, int to) {
+        int escaped = 0;
+        for (int n = from; n < to; n++) {
+            double squares = 0;
+            for (int axis = 0; axis < dimensions; axis++) {
+                double distance = positions[axis][n] - built[axis][n];
+                squares += distance * distance;
+            }
+            if (squares > escapeDistance[n] * escapeDistance[n]) {
+                escaped++;
+            }
+        }
+        return escaped;
+    }
+
+    /**
+     * The nodes of <code>[start, end)</code> share their Morton code: encode them again relatively to their own
+     * bounding box. Returns false when they are all at the same position.
+     */
+    private boolean refine(float[][] positions, int start, int end) {
+        float[] bounds = bounds(positions, order, start, end);
+        boolean samePosition = true;
+        for (int axis = 0; axis < dimensions; axis++) {
+            samePosition &= bounds[axis] == bounds[axis + dimensions];
+        }
+        if (samePosition) {
+            return false;
+        }
+        setScale(bounds);
+        for (int i = start; i < end; i++) {
+            keys[i] = ((long) mortonCode(positions, order[i], bounds) << 32) | order[i];
+        }
+        Arrays.sort(keys, start, end);
+        decode(start, end);
+        return true;
+    }
+
+    private int lowerBound(int from, int to, int code) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (codes[middle] < code) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+}
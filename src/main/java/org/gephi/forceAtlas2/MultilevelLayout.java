@@ -0,0 +1,212 @@
+package org.gephi.forceAtlas2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Multilevel initial placement: the graph is coarsened level by level, the coarsest level is laid out, then
+ * each level hands its positions down to the finer one, which is refined by a few iterations.
+ * <p>
+ * A level is coarsened by heavy edge matching, then the nodes left alone join the group of their heaviest
+ * neighbor, so stars collapse as fast as chains. Groups sum the masses of their nodes and the weights of the
+ * edges between them, edges inside a group disappear. Fixed nodes are never merged and keep their position.
+ * The finest level is not refined here, that is the job of the regular iterations.
+ */
+class MultilevelLayout {
+
+    // Coarsening stops when a level doesn't shrink by at least this ratio
+    private static final double MIN_REDUCTION = 0.9;
+    private static final int MAX_LEVELS = 30;
+
+    private final ForceAtlas2 layout;
+    private final ExecutorService pool;
+    private final int threadCount;
+    private final Random random = new Random(42);
+
+    MultilevelLayout(ForceAtlas2 layout, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.pool = pool;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Computes the positions of the nodes of <code>fine</code> in place, starting from their current positions.
+     */
+    void apply(LayoutData fine) {
+        List<LayoutData> levels = new ArrayList<>();
+        List<int[]> groups = new ArrayList<>();
+        levels.add(fine);
+        LayoutData current = fine;
+        while (current.nodeCount > layout.getMultilevelCoarsestSize() && levels.size() < MAX_LEVELS) {
+            int[] group = new int[current.nodeCount];
+            int groupCount = match(current, group);
+            if (groupCount > MIN_REDUCTION * current.nodeCount) {
+                break;
+            }
+            current = coarsen(current, group, groupCount);
+            levels.add(current);
+            groups.add(group);
+        }
+
+        for (int level = levels.size() - 1; level > 0; level--) {
+            refine(levels.get(level));
+            prolong(levels.get(level), levels.get(level - 1), groups.get(level - 1));
+        }
+    }
+
+    private void refine(LayoutData data) {
+        ArrayLayoutEngine engine = new ArrayLayoutEngine(layout, data, null, null, pool, threadCount);
+        for (int i = 0; i < layout.getMultilevelIterations(); i++) {
+            engine.goAlgo();
+        }
+    }
+
+    /**
+     * Groups the nodes of <code>data</code>, writing the group of each node in <code>group</code>, and returns
+     * the number of groups.
+     */
+    private int match(LayoutData data, int[] group) {
+        int nodeCount = data.nodeCount;
+        if (!data.hasAdjacency()) {
+            data.buildAdjacency();
+        }
+        int[] start = data.adjacencyStart;
+        int[] other = data.adjacencyNode;
+        int[] edge = data.adjacencyEdge;
+        float[] mass = data.mass;
+        boolean[] fixed = data.fixed;
+
+        // Visit the nodes in a random order, so the matching doesn't follow the input order
+        int[] order = new int[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            order[n] = n;
+            group[n] = -1;
+        }
+        for (int i = nodeCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        // Heavy edge matching, the weight is divided by the masses to keep the groups balanced
+        int groupCount = 0;
+        for (int n : order) {
+            if (group[n] >= 0 || fixed[n]) {
+                continue;
+            }
+            int best = -1;
+            double bestWeight = 0;
+            for (int k = start[n]; k < start[n + 1]; k++) {
+                int n2 = other[k];
+                if (group[n2] < 0 && !fixed[n2]) {
+                    double weight = data.edgeWeight[edge[k]] / (mass[n] * mass[n2]);
+                    if (best < 0 || weight > bestWeight) {
+                        best = n2;
+                        bestWeight = weight;
+                    }
+                }
+            }
+            if (best >= 0) {
+                group[n] = groupCount;
+                group[best] = groupCount;
+                groupCount++;
+            }
+        }
+
+        // The nodes left alone join their heaviest neighbor, or stay alone
+        for (int n : order) {
+            if (group[n] >= 0) {
+                continue;
+            }
+            int best = -1;
+            double bestWeight = 0;
+            if (!fixed[n]) {
+                for (int k = start[n]; k < start[n + 1]; k++) {
+                    int n2 = other[k];
+                    if (group[n2] >= 0 && !fixed[n2] && (best < 0 || data.edgeWeight[edge[k]] > bestWeight)) {
+                        best = n2;
+                        bestWeight = data.edgeWeight[edge[k]];
+                    }
+                }
+            }
+            group[n] = best >= 0 ? group[best] : groupCount++;
+        }
+        return groupCount;
+    }
+
+    /**
+     * Builds the level made of the groups of <code>data</code>. A group is placed at the center of mass of its
+     * nodes.
+     */
+    private static LayoutData coarsen(LayoutData data, int[] group, int groupCount) {
+        double[] x = new double[groupCount];
+        double[] y = new double[groupCount];
+        double[] mass = new double[groupCount];
+        double[] area = new double[groupCount];
+        boolean[] fixed = new boolean[groupCount];
+        for (int n = 0; n < data.nodeCount; n++) {
+            int g = group[n];
+            x[g] += data.mass[n] * data.x[n];
+            y[g] += data.mass[n] * data.y[n];
+            mass[g] += data.mass[n];
+            area[g] += data.size[n] * data.size[n];
+            fixed[g] |= data.fixed[n];
+        }
+
+        // Edges between the same groups are merged, in the direction of the first one
+        HashMap<Long, Integer> coarseEdges = new HashMap<>();
+        List<int[]> ends = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (int e = 0; e < data.edgeCount; e++) {
+            int source = group[data.edgeSource[e]];
+            int target = group[data.edgeTarget[e]];
+            if (source == target) {
+                continue;
+            }
+            long key = ((long) Math.min(source, target) << 32) | Math.max(source, target);
+            Integer index = coarseEdges.get(key);
+            if (index == null) {
+                coarseEdges.put(key, ends.size());
+                ends.add(new int[]{source, target});
+                weights.add(data.edgeWeight[e]);
+            } else {
+                weights.set(index, weights.get(index) + data.edgeWeight[e]);
+            }
+        }
+
+        LayoutData coarse = new LayoutData(groupCount, ends.size());
+        for (int g = 0; g < groupCount; g++) {
+            coarse.x[g] = (float) (x[g] / mass[g]);
+            coarse.y[g] = (float) (y[g] / mass[g]);
+            coarse.mass[g] = (float) mass[g];
+            coarse.size[g] = (float) Math.sqrt(area[g]);
+            coarse.fixed[g] = fixed[g];
+        }
+        for (int e = 0; e < ends.size(); e++) {
+            coarse.edgeSource[e] = ends.get(e)[0];
+            coarse.edgeTarget[e] = ends.get(e)[1];
+            coarse.edgeWeight[e] = weights.get(e);
+        }
+        return coarse;
+    }
+
+    /**
+     * Places the nodes of <code>fine</code> around the position of their group in <code>coarse</code>, fixed
+     * nodes don't move. The small random offset keeps the nodes of a group from sharing a position.
+     */
+    private void prolong(LayoutData coarse, LayoutData fine, int[] group) {
+        for (int n = 0; n < fine.nodeCount; n++) {
+            if (fine.fixed[n]) {
+                continue;
+            }
+            double angle = 2 * Math.PI * random.nextDouble();
+            double radius = Math.max(1, fine.size[n]);
+            fine.x[n] = (float) (coarse.x[group[n]] + radius * Math.cos(angle));
+            fine.y[n] = (float) (coarse.y[group[n]] + radius * Math.sin(angle));
+        }
+    }
+}
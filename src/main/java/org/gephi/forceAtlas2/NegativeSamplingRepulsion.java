@@ -0,0 +1,111 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Stochastic repulsion by negative sampling, in <code>O(n * k)</code> per iteration.
+ * <p>
+ * At each iteration, every node is repulsed by {@link #setSamples(Integer) k} nodes drawn at random among the
+ * others, the sum being scaled by <code>(n - 1) / k</code> so that its expectation is the exact repulsion. The
+ * layout can also take the attraction from a random share of the edges at each iteration, see
+ * {@link ForceAtlas2#setEdgeSampling(Double)}. The noise of the samples averages out over the iterations, the
+ * adaptive speed of the layout damping it as the swinging grows.
+ * <p>
+ * The draws come from a counter based generator: the draw of a node is a hash of {@link #setSeed(Long) the seed},
+ * the iteration, the node and the rank of the draw, so the threads need no shared state and a run is the same
+ * whatever the number of threads or the way the nodes are split between them. The provider counts the
+ * iterations, so it is not meant to be shared by layouts running at the same time.
+ */
+public class NegativeSamplingRepulsion implements RepulsionForceProvider {
+
+    private int samples = 10;
+    private long seed = 42;
+    private long iteration;
+
+    public NegativeSamplingRepulsion() {
+    }
+
+    /**
+     * The exact repulsion, for the layout on <code>Node</code> objects; the sampled one runs on the array layout.
+     */
+    @Override
+    public ForceFactory.RepulsionForce getRepulsionForce(boolean adjustBySize, double coefficient) {
+        return ForceFactory.getForceFactory().buildRepulsion(adjustBySize, coefficient);
+    }
+
+    @Override
+    public BulkRepulsionForce getBulkRepulsionForce(boolean adjustBySize, double coefficient) {
+        ForceFactory.RepulsionKernel kernel = ForceFactory.getForceFactory()
+                .buildRepulsionKernel(adjustBySize, coefficient);
+        return new BulkRepulsionForce() {
+            @Override
+            public void prepare(LayoutData data) {
+                iteration++;
+            }
+
+            @Override
+            public void apply(LayoutData data, int from, int to) {
+                sample(data, from, to, kernel);
+            }
+        };
+    }
+
+    private void sample(LayoutData data, int from, int to, ForceFactory.RepulsionKernel kernel) {
+        int nodeCount = data.nodeCount;
+        if (nodeCount < 2) {
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] z = data.threeDimensional ? data.z : null;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        int k = Math.min(samples, nodeCount - 1);
+        double scale = (double) (nodeCount - 1) / k;
+        int bound = nodeCount - 1;
+        for (int n = from; n < to; n++) {
+            long key = CounterRandom.mix(seed ^ CounterRandom.GAMMA * iteration ^ n);
+            double shiftX = 0;
+            double shiftY = 0;
+            double shiftZ = 0;
+            for (int s = 0; s < k; s++) {
+                // Uniform among the other nodes
+                int n2 = (int) (((CounterRandom.draw(key, s) >>> 32) * bound) >>> 32);
+                if (n2 >= n) {
+                    n2++;
+                }
+                double xDist = x[n] - x[n2];
+                double yDist = y[n] - y[n2];
+                double zDist = z != null ? z[n] - z[n2] : 0;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                double factor = kernel.nodeFactor(distance, mass[n], mass[n2], size[n], size[n2]);
+                shiftX += xDist * factor;
+                shiftY += yDist * factor;
+                shiftZ += zDist * factor;
+            }
+            data.dx[n] += shiftX * scale;
+            data.dy[n] += shiftY * scale;
+            if (z != null) {
+                data.dz[n] += shiftZ * scale;
+            }
+        }
+    }
+
+    public Integer getSamples() {
+        return samples;
+    }
+
+    /**
+     * Number of nodes each node is repulsed by at each iteration.
+     */
+    public void setSamples(Integer samples) {
+        this.samples = Math.max(1, samples);
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+        this.iteration = 0;
+    }
+}
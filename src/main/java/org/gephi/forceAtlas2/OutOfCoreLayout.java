@@ -0,0 +1,492 @@
+package org.gephi.forceAtlas2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Layout of a graph kept in files instead of the heap, for graphs too large for <code>Node</code> objects.
+ * <p>
+ * The positions and sizes are memory-mapped from the node file and moved in place. The masses, deltas and old
+ * deltas are memory-mapped from a work file next to it, deleted at the end. The edges are streamed from the edge
+ * file in chunks for the attraction, which runs in the calling thread as each edge shifts both of its nodes.
+ * Only the Barnes Hut summary stays on the heap: a pyramid of regular grids over the nodes, the finest one of
+ * about 4 nodes per cell, holding the mass and center of mass of each cell. A node is repulsed by the cells far
+ * enough from it for {@link ForceAtlas2#getBarnesHutTheta() theta}, and by the center of mass of the finest
+ * cells near it, its own cell without itself. Repulsion, gravity and the moves run in parallel over ranges of
+ * nodes. Sizes don't prevent overlaps and no node is fixed.
+ * <p>
+ * See {@link ForceAtlas2#runOutOfCore(Path, Path, StopCriteria)} for the file formats.
+ */
+class OutOfCoreLayout {
+
+    static final int NODE_BYTES = 3 * Float.BYTES;
+    static final int EDGE_BYTES = 2 * Integer.BYTES + Float.BYTES;
+    // Edges read at once for the attraction
+    private static final int CHUNK_EDGES = 1 << 16;
+    // Finest grid of the pyramid, 4^11 cells at most
+    private static final int MAX_DEPTH = 11;
+
+    private final ForceAtlas2 layout;
+    private final Path nodeFile;
+    private final Path edgeFile;
+    private final ExecutorService pool;
+    private final int threadCount;
+
+    private FileChannel nodeChannel;
+    private FileChannel edgeChannel;
+    private FileChannel workChannel;
+    private Path workFile;
+    private int nodeCount;
+    private long edgeCount;
+    private MappedColumn x;
+    private MappedColumn y;
+    private MappedColumn size;
+    private MappedColumn mass;
+    private MappedColumn dx;
+    private MappedColumn dy;
+    private MappedColumn oldDx;
+    private MappedColumn oldDy;
+    private double outboundAttCompensation;
+
+    // The pyramid, level l has 2^l by 2^l cells starting at levelStart[l], row by row
+    private int depth;
+    private int[] levelStart;
+    private double[] cellMass;
+    private double[] cellSumX;
+    private double[] cellSumY;
+    private double minX;
+    private double minY;
+    private double width;
+
+    private double speed = 1.;
+    private double speedEfficiency = 1.;
+    private double totalSwinging;
+    private double totalEffectiveTraction;
+
+    OutOfCoreLayout(ForceAtlas2 layout, Path nodeFile, Path edgeFile, ExecutorService pool, int threadCount) {
+        this.layout = layout;
+        this.nodeFile = nodeFile;
+        this.edgeFile = edgeFile;
+        this.pool = pool;
+        this.threadCount = threadCount;
+    }
+
+    void initAlgo() {
+        try {
+            nodeChannel = FileChannel.open(nodeFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            edgeChannel = FileChannel.open(edgeFile, StandardOpenOption.READ);
+            if (nodeChannel.size() % NODE_BYTES != 0 || nodeChannel.size() / NODE_BYTES > Integer.MAX_VALUE
+                    || edgeChannel.size() % EDGE_BYTES != 0) {
+                throw new IllegalArgumentException("The node or edge file doesn't hold whole records.");
+            }
+            nodeCount = (int) (nodeChannel.size() / NODE_BYTES);
+            edgeCount = edgeChannel.size() / EDGE_BYTES;
+            x = new MappedColumn(nodeChannel, 0, nodeCount, Float.BYTES);
+            y = new MappedColumn(nodeChannel, (long) nodeCount * Float.BYTES, nodeCount, Float.BYTES);
+            size = new MappedColumn(nodeChannel, 2L * nodeCount * Float.BYTES, nodeCount, Float.BYTES);
+
+            Path directory = nodeFile.toAbsolutePath().getParent();
+            workFile = Files.createTempFile(directory, "fa2", ".work");
+            workChannel = FileChannel.open(workFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long doubleColumn = (long) nodeCount * Double.BYTES;
+            long offset = (long) nodeCount * Float.BYTES;
+            mass = new MappedColumn(workChannel, 0, nodeCount, Float.BYTES);
+            dx = new MappedColumn(workChannel, offset, nodeCount, Double.BYTES);
+            dy = new MappedColumn(workChannel, offset + doubleColumn, nodeCount, Double.BYTES);
+            oldDx = new MappedColumn(workChannel, offset + 2 * doubleColumn, nodeCount, Double.BYTES);
+            oldDy = new MappedColumn(workChannel, offset + 3 * doubleColumn, nodeCount, Double.BYTES);
+
+            // Masses are 1 + degree, the new work file is all zeros
+            streamEdges((source, target, weight) -> {
+                mass.putFloat(source, mass.getFloat(source) + 1);
+                mass.putFloat(target, mass.getFloat(target) + 1);
+            });
+            double totalMass = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                float m = mass.getFloat(n) + 1;
+                mass.putFloat(n, m);
+                totalMass += m;
+            }
+            outboundAttCompensation = nodeCount > 0 ? totalMass / nodeCount : 1;
+        } catch (IOException e) {
+            endAlgo();
+            throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+        }
+
+        // About 4 nodes per finest cell
+        depth = 1;
+        while (depth < MAX_DEPTH && (1L << 2 * depth) * 4 < nodeCount) {
+            depth++;
+        }
+        levelStart = new int[depth + 2];
+        for (int l = 0; l <= depth; l++) {
+            levelStart[l + 1] = levelStart[l] + (1 << 2 * l);
+        }
+        cellMass = new double[levelStart[depth + 1]];
+        cellSumX = new double[cellMass.length];
+        cellSumY = new double[cellMass.length];
+    }
+
+    void goAlgo() {
+        if (nodeCount == 0) {
+            return;
+        }
+        double scalingRatio = layout.getScalingRatio();
+        buildPyramid();
+
+        // Repulsion (and gravity), the tasks also move the deltas of their nodes to the old deltas
+        ForceFactory.RepulsionKernel repulsion = ForceFactory.getForceFactory()
+                .buildRepulsionKernel(false, scalingRatio);
+        ForceFactory.GravityKernel gravity = ForceFactory.getForceFactory()
+                .buildGravityKernel(layout.isStrongGravityMode(), scalingRatio);
+        double g = layout.getGravity() / scalingRatio;
+        double theta = layout.getBarnesHutTheta();
+        int taskCount = threadCount > 1 ? 8 * threadCount : 1;
+        ParallelRanges.run(pool, ParallelRanges.split(nodeCount, taskCount),
+                (from, to) -> () -> repulse(from, to, repulsion, gravity, g, theta));
+
+        // Attraction, streamed
+        ForceFactory.AttractionKernel attraction = ForceFactory.getForceFactory()
+                .buildAttractionKernel(layout.isLinLogMode(), layout.isOutboundAttractionDistribution(), false,
+                        layout.isOutboundAttractionDistribution() ? outboundAttCompensation : 1);
+        double edgeWeightInfluence = layout.getEdgeWeightInfluence();
+        try {
+            streamEdges((source, target, weight) -> {
+                double w;
+                if (edgeWeightInfluence == 0) {
+                    w = 1;
+                } else if (edgeWeightInfluence == 1) {
+                    w = weight;
+                } else {
+                    w = Math.pow(weight, edgeWeightInfluence);
+                }
+                double xDist = x.getFloat(source) - x.getFloat(target);
+                double yDist = y.getFloat(source) - y.getFloat(target);
+                double factor = attraction.factor(xDist * xDist + yDist * yDist, mass.getFloat(source),
+                        size.getFloat(source), size.getFloat(target), w);
+                dx.putDouble(source, dx.getDouble(source) + xDist * factor);
+                dy.putDouble(source, dy.getDouble(source) + yDist * factor);
+                dx.putDouble(target, dx.getDouble(target) - xDist * factor);
+                dy.putDouble(target, dy.getDouble(target) - yDist * factor);
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+        }
+
+        // Auto adjust speed, then apply forces
+        int[] bounds = ParallelRanges.split(nodeCount, threadCount);
+        double[] totals = ParallelRanges.sum(pool, bounds, this::sumSwingingAndTraction);
+        adjustSpeed(totals[0], totals[1]);
+        ParallelRanges.run(pool, bounds, (from, to) -> () -> applyForces(from, to));
+    }
+
+    void endAlgo() {
+        try {
+            if (x != null) {
+                x.force();
+                y.force();
+            }
+            for (FileChannel channel : new FileChannel[]{nodeChannel, edgeChannel, workChannel}) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            if (workFile != null) {
+                Files.deleteIfExists(workFile);
+            }
+        } catch (IOException e) {
+            // Still mapped on some platforms
+            if (workFile != null) {
+                workFile.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    double getSwinging() {
+        return nodeCount > 0 ? totalSwinging / nodeCount : 0;
+    }
+
+    double getTraction() {
+        return nodeCount > 0 ? totalEffectiveTraction / nodeCount : 0;
+    }
+
+    private interface EdgeVisitor {
+
+        void visit(int source, int target, float weight);
+    }
+
+    private void streamEdges(EdgeVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_EDGES * EDGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        long end = edgeCount * EDGE_BYTES;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                int read = edgeChannel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of the edge file.");
+                }
+            }
+            buffer.flip();
+            position += buffer.limit();
+            while (buffer.hasRemaining()) {
+                int source = buffer.getInt();
+                int target = buffer.getInt();
+                float weight = buffer.getFloat();
+                if (source < 0 || source >= nodeCount || target < 0 || target >= nodeCount) {
+                    throw new IllegalArgumentException("Edge between " + source + " and " + target
+                            + " out of the " + nodeCount + " nodes.");
+                }
+                visitor.visit(source, target, weight);
+            }
+        }
+    }
+
+    /**
+     * Sums the masses into the finest cells, then each level into the one above. Both passes are linear and
+     * sequential, the pyramid being shared.
+     */
+    private void buildPyramid() {
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        for (int n = 0; n < nodeCount; n++) {
+            minX = Math.min(minX, x.getFloat(n));
+            minY = Math.min(minY, y.getFloat(n));
+            maxX = Math.max(maxX, x.getFloat(n));
+            maxY = Math.max(maxY, y.getFloat(n));
+        }
+        width = Math.max(Math.max(maxX - minX, maxY - minY), Double.MIN_NORMAL) * (1 + 1e-9);
+
+        Arrays.fill(cellMass, 0);
+        Arrays.fill(cellSumX, 0);
+        Arrays.fill(cellSumY, 0);
+        int side = 1 << depth;
+        for (int n = 0; n < nodeCount; n++) {
+            double nodeX = x.getFloat(n);
+            double nodeY = y.getFloat(n);
+            double m = mass.getFloat(n);
+            int cell = levelStart[depth] + cellY(nodeY, side) * side + cellX(nodeX, side);
+            cellMass[cell] += m;
+            cellSumX[cell] += m * nodeX;
+            cellSumY[cell] += m * nodeY;
+        }
+        for (int l = depth - 1; l >= 0; l--) {
+            int levelSide = 1 << l;
+            for (int cy = 0; cy < levelSide; cy++) {
+                for (int cx = 0; cx < levelSide; cx++) {
+                    int cell = levelStart[l] + cy * levelSide + cx;
+                    for (int child = 0; child < 4; child++) {
+                        int c = levelStart[l + 1] + (2 * cy + (child >> 1)) * 2 * levelSide + 2 * cx + (child & 1);
+                        cellMass[cell] += cellMass[c];
+                        cellSumX[cell] += cellSumX[c];
+                        cellSumY[cell] += cellSumY[c];
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellX(double nodeX, int side) {
+        return Math.min(side - 1, (int) ((nodeX - minX) / width * side));
+    }
+
+    private int cellY(double nodeY, int side) {
+        return Math.min(side - 1, (int) ((nodeY - minY) / width * side));
+    }
+
+    private void repulse(int from, int to, ForceFactory.RepulsionKernel repulsion, ForceFactory.GravityKernel gravity,
+                         double g, double theta) {
+        // Cells to visit, as level, column and row
+        long[] stack = new long[3 * depth + 4];
+        int side = 1 << depth;
+        for (int n = from; n < to; n++) {
+            oldDx.putDouble(n, dx.getDouble(n));
+            oldDy.putDouble(n, dy.getDouble(n));
+            double nodeX = x.getFloat(n);
+            double nodeY = y.getFloat(n);
+            double m = mass.getFloat(n);
+            int leafX = cellX(nodeX, side);
+            int leafY = cellY(nodeY, side);
+            double shiftX = 0;
+            double shiftY = 0;
+
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                long entry = stack[--top];
+                int l = (int) (entry >>> 42);
+                int cx = (int) (entry >>> 21) & 0x1FFFFF;
+                int cy = (int) entry & 0x1FFFFF;
+                int cell = levelStart[l] + cy * (1 << l) + cx;
+                double regionMass = cellMass[cell];
+                double sumX = cellSumX[cell];
+                double sumY = cellSumY[cell];
+                boolean own = leafX >> depth - l == cx && leafY >> depth - l == cy;
+                if (own && l < depth) {
+                    pushChildren(stack, top, l, cx, cy);
+                    top += 4;
+                    continue;
+                }
+                if (own) {
+                    // The own cell, without the node
+                    regionMass -= m;
+                    sumX -= m * nodeX;
+                    sumY -= m * nodeY;
+                }
+                if (regionMass <= 1e-9) {
+                    continue;
+                }
+                double xDist = nodeX - sumX / regionMass;
+                double yDist = nodeY - sumY / regionMass;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                if (l == depth || distance * theta > width / (1 << l)) {
+                    double factor = repulsion.regionFactor(distance, m, regionMass);
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                } else {
+                    pushChildren(stack, top, l, cx, cy);
+                    top += 4;
+                }
+            }
+
+            double distance = Math.sqrt(nodeX * nodeX + nodeY * nodeY);
+            double factor = gravity.factor(distance, m, g);
+            dx.putDouble(n, shiftX - nodeX * factor);
+            dy.putDouble(n, shiftY - nodeY * factor);
+        }
+    }
+
+    private static void pushChildren(long[] stack, int top, int l, int cx, int cy) {
+        for (int child = 0; child < 4; child++) {
+            stack[top + child] = (long) (l + 1) << 42 | (long) (2 * cx + (child & 1)) << 21 | 2 * cy + (child >> 1);
+        }
+    }
+
+    private double[] sumSwingingAndTraction(int from, int to) {
+        double swingingSum = 0d;
+        double tractionSum = 0d;
+        for (int n = from; n < to; n++) {
+            double nodeDx = dx.getDouble(n);
+            double nodeDy = dy.getDouble(n);
+            double nodeOldDx = oldDx.getDouble(n);
+            double nodeOldDy = oldDy.getDouble(n);
+            double m = mass.getFloat(n);
+            swingingSum += m * Math.sqrt((nodeOldDx - nodeDx) * (nodeOldDx - nodeDx)
+                    + (nodeOldDy - nodeDy) * (nodeOldDy - nodeDy));
+            tractionSum += m * 0.5 * Math.sqrt((nodeOldDx + nodeDx) * (nodeOldDx + nodeDx)
+                    + (nodeOldDy + nodeDy) * (nodeOldDy + nodeDy));
+        }
+        return new double[]{swingingSum, tractionSum};
+    }
+
+    private void applyForces(int from, int to) {
+        for (int n = from; n < to; n++) {
+            double nodeDx = dx.getDouble(n);
+            double nodeDy = dy.getDouble(n);
+            double nodeOldDx = oldDx.getDouble(n);
+            double nodeOldDy = oldDy.getDouble(n);
+            // Adaptive auto-speed: the speed of each node is lowered when the node swings.
+            double swinging = mass.getFloat(n) * Math.sqrt((nodeOldDx - nodeDx) * (nodeOldDx - nodeDx)
+                    + (nodeOldDy - nodeDy) * (nodeOldDy - nodeDy));
+            double factor = speed / (1f + Math.sqrt(speed * swinging));
+            x.putFloat(n, (float) (x.getFloat(n) + nodeDx * factor));
+            y.putFloat(n, (float) (y.getFloat(n) + nodeDy * factor));
+        }
+    }
+
+    // The speed control of the array layout
+    private void adjustSpeed(double totalSwinging, double totalEffectiveTraction) {
+        this.totalSwinging = totalSwinging;
+        this.totalEffectiveTraction = totalEffectiveTraction;
+        double jitterTolerance = layout.getJitterTolerance();
+
+        // Optimize jitter tolerance
+        double estimatedOptimalJitterTolerance = 0.05 * Math.sqrt(nodeCount);
+        double minJT = Math.sqrt(estimatedOptimalJitterTolerance);
+        double maxJT = 10;
+        double jt = jitterTolerance * Math.max(minJT,
+                Math.min(maxJT, estimatedOptimalJitterTolerance * totalEffectiveTraction / Math.pow(nodeCount, 2)));
+
+        double minSpeedEfficiency = 0.05;
+
+        // Protection against erratic behavior
+        if (totalSwinging / totalEffectiveTraction > 2.0) {
+            if (speedEfficiency > minSpeedEfficiency) {
+                speedEfficiency *= 0.5;
+            }
+            jt = Math.max(jt, jitterTolerance);
+        }
+
+        double targetSpeed = jt * speedEfficiency * totalEffectiveTraction / totalSwinging;
+
+        // Speed efficiency is how the speed really corresponds to the swinging vs. convergence tradeoff
+        if (totalSwinging > jt * totalEffectiveTraction) {
+            if (speedEfficiency > minSpeedEfficiency) {
+                speedEfficiency *= 0.7;
+            }
+        } else if (speed < 1000) {
+            speedEfficiency *= 1.3;
+        }
+
+        // But the speed shouldn't rise too much too quickly
+        double maxRise = 0.5;
+        speed = speed + Math.min(targetSpeed - speed, maxRise * speed);
+    }
+
+    /**
+     * A column of floats or doubles mapped from a file, in mappings of at most 2^27 values as a single mapping
+     * can't exceed 2 GB.
+     */
+    private static final class MappedColumn {
+
+        private static final int SHIFT = 27;
+        private static final int MASK = (1 << SHIFT) - 1;
+
+        private final MappedByteBuffer[] segments;
+        private final int bytes;
+
+        MappedColumn(FileChannel channel, long position, int count, int bytes) throws IOException {
+            this.bytes = bytes;
+            segments = new MappedByteBuffer[(int) (((long) count + MASK) >>> SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                long first = (long) s << SHIFT;
+                long values = Math.min(1L << SHIFT, count - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, position + first * bytes, values * bytes);
+                segments[s].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        float getFloat(int i) {
+            return segments[i >>> SHIFT].getFloat((i & MASK) * bytes);
+        }
+
+        void putFloat(int i, float value) {
+            segments[i >>> SHIFT].putFloat((i & MASK) * bytes, value);
+        }
+
+        double getDouble(int i) {
+            return segments[i >>> SHIFT].getDouble((i & MASK) * bytes);
+        }
+
+        void putDouble(int i, double value) {
+            segments[i >>> SHIFT].putDouble((i & MASK) * bytes, value);
+        }
+
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+    }
+}
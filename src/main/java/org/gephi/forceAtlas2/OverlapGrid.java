@@ -0,0 +1,279 @@
+package org.gephi.forceAtlas2;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the nodes of a {@link LayoutData}, to find the pairs of nodes that overlap.
+ * <p>
+ * Cells are as wide as twice the typical node size plus the margin, the typical size being the largest size up
+ * to twice the 90th percentile of the sizes, so two typical nodes only overlap when they are in the same or
+ * neighbor cells. When typical nodes can't overlap at all, their size and the margin being 0, the cells are as
+ * wide as the spread of the nodes over the square root of their number instead. The nodes larger than the
+ * typical size stay out of the grid: they look for their
+ * neighbors over all the cells they may reach, and every node looks at them. The cells are hashed in a table of
+ * about one bucket per node, filled by a counting sort. Every node keeps the coordinates of its cell, so the
+ * nodes of another cell sharing the bucket are skipped. The build is <code>O(n log n)</code> for the percentile,
+ * the queries only test nearby nodes and the large ones. Queries only write to the node they are made for,
+ * ranges of nodes can run in parallel.
+ */
+final class OverlapGrid {
+
+    // Pairs closer to their gap than this share of it count as apart, floats can't get them any closer
+    private static final double TOLERANCE = 1e-4;
+    // Cell coordinates are clamped to this, far away nodes share the border cells
+    private static final int MAX_CELL = 1 << 29;
+
+    private boolean empty = true;
+    private int mask;
+    private double cellSize;
+    private double typicalSize;
+    private boolean typicalPairs;
+    private double margin;
+    private int smallCount;
+    private int largeCount;
+    private int[] bucketStart = new int[0];
+    private int[] sorted = new int[0];
+    private int[] large = new int[0];
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private float[] sizes = new float[0];
+
+    /**
+     * Fills the grid from the current positions. When no two nodes can overlap, the sizes and the margin being 0,
+     * the grid stays empty.
+     *
+     * @param margin the gap to keep between the borders of the nodes
+     */
+    void build(LayoutData data, double margin) {
+        int nodeCount = data.nodeCount;
+        this.margin = margin;
+        double maxSize = 0;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int n = 0; n < nodeCount; n++) {
+            maxSize = Math.max(maxSize, data.size[n]);
+            minX = Math.min(minX, data.x[n]);
+            minY = Math.min(minY, data.y[n]);
+            maxX = Math.max(maxX, data.x[n]);
+            maxY = Math.max(maxY, data.y[n]);
+        }
+        empty = nodeCount < 2 || maxSize <= 0 && margin <= 0;
+        if (empty) {
+            return;
+        }
+        if (sorted.length < nodeCount) {
+            sorted = new int[nodeCount];
+            large = new int[nodeCount];
+            cellX = new int[nodeCount];
+            cellY = new int[nodeCount];
+            sizes = new float[nodeCount];
+        }
+        System.arraycopy(data.size, 0, sizes, 0, nodeCount);
+        Arrays.sort(sizes, 0, nodeCount);
+        double limit = 2 * sizes[(int) (0.9 * (nodeCount - 1))];
+        int typical = nodeCount - 1;
+        while (sizes[typical] > limit) {
+            typical--;
+        }
+        typicalSize = sizes[typical];
+        typicalPairs = 2 * typicalSize + margin > 0;
+        cellSize = typicalPairs ? 2 * typicalSize + margin
+                : Math.max(Math.max(maxX - minX, maxY - minY) / Math.sqrt(nodeCount), Double.MIN_NORMAL);
+
+        int buckets = Integer.highestOneBit(nodeCount) * 2;
+        mask = buckets - 1;
+        if (bucketStart.length < buckets + 1) {
+            bucketStart = new int[buckets + 1];
+        }
+        Arrays.fill(bucketStart, 0, buckets + 1, 0);
+        largeCount = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            cellX[n] = cell(data.x[n]);
+            cellY[n] = cell(data.y[n]);
+            if (data.size[n] > typicalSize) {
+                large[largeCount++] = n;
+            } else {
+                bucketStart[bucket(cellX[n], cellY[n]) + 1]++;
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        smallCount = bucketStart[buckets];
+        int[] next = Arrays.copyOf(bucketStart, buckets);
+        for (int n = 0; n < nodeCount; n++) {
+            if (data.size[n] <= typicalSize) {
+                sorted[next[bucket(cellX[n], cellY[n])]++] = n;
+            }
+        }
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.max(-MAX_CELL, Math.min(MAX_CELL, Math.floor(coordinate / cellSize)));
+    }
+
+    private int bucket(int x, int y) {
+        int hash = x * 73856093 ^ y * 19349663;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Writes to <code>candidates</code> the nodes that may overlap node <code>n</code>, and returns them, grown
+     * when needed. Their number goes to <code>count[0]</code>.
+     */
+    private int[] candidates(LayoutData data, int n, int[] candidates, int[] count) {
+        int found = 0;
+        if (data.size[n] <= typicalSize) {
+            // A typical node only overlaps the typical nodes of the neighbor cells, if any
+            int range = typicalPairs ? 1 : -1;
+            for (int i = -range; i <= range; i++) {
+                for (int j = -range; j <= range; j++) {
+                    int cx = cellX[n] + i;
+                    int cy = cellY[n] + j;
+                    int b = bucket(cx, cy);
+                    for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                        int n2 = sorted[k];
+                        if (n2 != n && cellX[n2] == cx && cellY[n2] == cy) {
+                            candidates = add(candidates, found++, n2);
+                        }
+                    }
+                }
+            }
+        } else {
+            // A large node reaches the typical nodes of all the cells within its size, or all of them
+            double reach = data.size[n] + typicalSize + margin;
+            long x0 = cell(data.x[n] - reach);
+            long x1 = cell(data.x[n] + reach);
+            long y0 = cell(data.y[n] - reach);
+            long y1 = cell(data.y[n] + reach);
+            if ((x1 - x0 + 1) * (y1 - y0 + 1) > smallCount) {
+                for (int k = 0; k < smallCount; k++) {
+                    candidates = add(candidates, found++, sorted[k]);
+                }
+            } else {
+                for (int cx = (int) x0; cx <= x1; cx++) {
+                    for (int cy = (int) y0; cy <= y1; cy++) {
+                        int b = bucket(cx, cy);
+                        for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+                            int n2 = sorted[k];
+                            if (cellX[n2] == cx && cellY[n2] == cy) {
+                                candidates = add(candidates, found++, n2);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < largeCount; k++) {
+            if (large[k] != n) {
+                candidates = add(candidates, found++, large[k]);
+            }
+        }
+        count[0] = found;
+        return candidates;
+    }
+
+    private static int[] add(int[] candidates, int index, int n) {
+        if (index == candidates.length) {
+            candidates = Arrays.copyOf(candidates, Math.max(16, 2 * index));
+        }
+        candidates[index] = n;
+        return candidates;
+    }
+
+    /**
+     * Adds to the deltas of the awake nodes of <code>[from, to)</code> the anti-collision repulsion of the nodes
+     * whose border is closer than a cell to theirs, minus the plain repulsion they already got from the center
+     * distance. The pairs that overlap, or nearly, then get the anti-collision force, the farther ones keep the
+     * plain one.
+     *
+     * @param asleep the sleeping nodes, or <code>null</code>
+     */
+    void applyCollisionForce(LayoutData data, int from, int to, ForceFactory.RepulsionKernel antiCollision,
+                             boolean[] asleep) {
+        if (empty) {
+            return;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] mass = data.mass;
+        float[] size = data.size;
+        double coefficient = antiCollision.getCoefficient();
+        int[] candidates = new int[64];
+        int[] count = new int[1];
+        for (int n = from; n < to; n++) {
+            if (asleep != null && asleep[n]) {
+                continue;
+            }
+            candidates = candidates(data, n, candidates, count);
+            double shiftX = 0;
+            double shiftY = 0;
+            for (int k = 0; k < count[0]; k++) {
+                int n2 = candidates[k];
+                double xDist = x[n] - x[n2];
+                double yDist = y[n] - y[n2];
+                double distanceSquared = xDist * xDist + yDist * yDist;
+                double distance = Math.sqrt(distanceSquared);
+                if (distanceSquared > 0 && distance - size[n] - size[n2] < cellSize) {
+                    double factor = antiCollision.nodeFactor(distance, mass[n], mass[n2], size[n], size[n2])
+                            - coefficient * mass[n] * mass[n2] / distanceSquared;
+                    shiftX += xDist * factor;
+                    shiftY += yDist * factor;
+                }
+            }
+            data.dx[n] += shiftX;
+            data.dy[n] += shiftY;
+        }
+    }
+
+    /**
+     * Computes how far each node of <code>[from, to)</code> moves to take its share of its overlaps away: half
+     * the overlap of each pair, along the line between the centers. Returns the number of overlapping pairs seen
+     * from these nodes.
+     */
+    int separation(LayoutData data, int from, int to, double margin, double[] shiftX, double[] shiftY) {
+        if (empty) {
+            Arrays.fill(shiftX, from, to, 0);
+            Arrays.fill(shiftY, from, to, 0);
+            return 0;
+        }
+        float[] x = data.x;
+        float[] y = data.y;
+        float[] size = data.size;
+        int overlaps = 0;
+        int[] candidates = new int[64];
+        int[] count = new int[1];
+        for (int n = from; n < to; n++) {
+            candidates = candidates(data, n, candidates, count);
+            double moveX = 0;
+            double moveY = 0;
+            for (int k = 0; k < count[0]; k++) {
+                int n2 = candidates[k];
+                double xDist = x[n] - x[n2];
+                double yDist = y[n] - y[n2];
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist);
+                double gap = size[n] + size[n2] + margin;
+                if (distance < gap * (1 - TOLERANCE)) {
+                    overlaps++;
+                    double push;
+                    if (distance == 0) {
+                        // Same position: the pair moves apart along a direction given by its indices
+                        double angle = 2.399963 * Math.min(n, n2);
+                        xDist = n < n2 ? Math.cos(angle) : -Math.cos(angle);
+                        yDist = n < n2 ? Math.sin(angle) : -Math.sin(angle);
+                        push = gap / 2;
+                    } else {
+                        push = (gap - distance) / 2 / distance;
+                    }
+                    moveX += xDist * push;
+                    moveY += yDist * push;
+                }
+            }
+            shiftX[n] = moveX;
+            shiftY[n] = moveY;
+        }
+        return overlaps;
+    }
+}
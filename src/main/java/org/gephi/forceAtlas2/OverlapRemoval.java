@@ -0,0 +1,102 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Removes the overlaps of the nodes after a layout, moving them as little as it can.
+ * <p>
+ * Meant to run once after a layout without {@link ForceAtlas2#setAdjustSizes(Boolean) adjustSizes}, instead of
+ * running many iterations with it. Each round finds the overlapping pairs on an {@link OverlapGrid} and moves
+ * both nodes of each pair apart along the line between their centers, half of the overlap each. The moves of a
+ * round are computed in parallel from the same positions, then applied. Rounds go on until no pair overlaps or
+ * the round limit is reached. Fixed nodes don't move.
+ */
+public class OverlapRemoval {
+
+    private double margin = 0.;
+    private int maxRounds = 200;
+    private ExecutorService executor;
+
+    public OverlapRemoval() {
+    }
+
+    /**
+     * Moves the nodes of the graph apart, returns the number of overlapping pairs left.
+     */
+    public int removeOverlaps(Graph graph) {
+        Node[] nodes = graph.getNodes();
+        LayoutData data = LayoutData.fromGraph(graph);
+        int overlaps = removeOverlaps(data);
+        for (int n = 0; n < nodes.length; n++) {
+            nodes[n].setX(data.x[n]);
+            nodes[n].setY(data.y[n]);
+        }
+        return overlaps;
+    }
+
+    /**
+     * Moves the nodes of the data apart, returns the number of overlapping pairs left.
+     */
+    public int removeOverlaps(LayoutData data) {
+        int nodeCount = data.nodeCount;
+        if (nodeCount < 2) {
+            return 0;
+        }
+        ExecutorService pool = getExecutor() != null ? getExecutor() : ForceAtlas2.getSharedExecutor();
+        int[] bounds = ParallelRanges.split(nodeCount, Runtime.getRuntime().availableProcessors());
+        OverlapGrid grid = new OverlapGrid();
+        double[] shiftX = new double[nodeCount];
+        double[] shiftY = new double[nodeCount];
+        int overlaps = 0;
+        for (int round = 0; round <= maxRounds; round++) {
+            grid.build(data, margin);
+            double[] counts = ParallelRanges.sum(pool, bounds,
+                    (from, to) -> new double[]{grid.separation(data, from, to, margin, shiftX, shiftY)});
+            // Each pair was seen from both of its nodes
+            overlaps = (int) counts[0] / 2;
+            if (overlaps == 0 || round == maxRounds) {
+                break;
+            }
+            for (int n = 0; n < nodeCount; n++) {
+                if (!data.fixed[n]) {
+                    data.x[n] = (float) (data.x[n] + shiftX[n]);
+                    data.y[n] = (float) (data.y[n] + shiftY[n]);
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    public Double getMargin() {
+        return margin;
+    }
+
+    /**
+     * Gap to leave between the borders of the nodes.
+     */
+    public void setMargin(Double margin) {
+        this.margin = margin;
+    }
+
+    public Integer getMaxRounds() {
+        return maxRounds;
+    }
+
+    public void setMaxRounds(Integer maxRounds) {
+        this.maxRounds = maxRounds;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs on the given executor, {@link ForceAtlas2#getSharedExecutor()} when <code>null</code>.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+}
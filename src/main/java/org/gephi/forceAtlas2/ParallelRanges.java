@@ -0,0 +1,91 @@
+package org.gephi.forceAtlas2;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs work split in ranges of indices on a pool and waits for it.
+ */
+class ParallelRanges {
+
+    interface RangeTask {
+
+        Runnable create(int from, int to);
+    }
+
+    interface RangeSum {
+
+        double[] sum(int from, int to);
+    }
+
+    private ParallelRanges() {
+    }
+
+    /**
+     * Returns the bounds splitting <code>[0, count)</code> in <code>taskCount</code> ranges of the same size.
+     */
+    static int[] split(int count, int taskCount) {
+        int[] bounds = new int[taskCount + 1];
+        for (int t = 0; t <= taskCount; t++) {
+            bounds[t] = (int) ((long) count * t / taskCount);
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs the ranges <code>[bounds[t], bounds[t + 1])</code> on the pool and waits for all of them. A single
+     * range runs in the calling thread.
+     */
+    static void run(ExecutorService pool, int[] bounds, RangeTask task) {
+        if (bounds.length == 2) {
+            // A single range runs in the calling thread
+            task.create(bounds[0], bounds[1]).run();
+            return;
+        }
+        ArrayList<Future> threads = new ArrayList<>();
+        for (int t = bounds.length - 1; t > 0; t--) {
+            threads.add(pool.submit(task.create(bounds[t - 1], bounds[t])));
+        }
+        for (Future future : threads) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Runs the ranges on the pool and returns the element-wise sum of their results.
+     */
+    static double[] sum(ExecutorService pool, int[] bounds, RangeSum sum) {
+        if (bounds.length == 2) {
+            return sum.sum(bounds[0], bounds[1]);
+        }
+        ArrayList<Future<double[]>> threads = new ArrayList<>();
+        for (int t = bounds.length - 1; t > 0; t--) {
+            int from = bounds[t - 1];
+            int to = bounds[t];
+            threads.add(pool.submit((Callable<double[]>) () -> sum.sum(from, to)));
+        }
+        double[] total = null;
+        for (Future<double[]> future : threads) {
+            double[] partial;
+            try {
+                partial = future.get();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to layout " + ForceAtlas2.class.getSimpleName() + ".", e);
+            }
+            if (total == null) {
+                total = partial;
+            } else {
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += partial[i];
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,311 @@
+package org.gephi.forceAtlas2;
+
+import org.gephi.model.Graph;
+import org.gephi.model.Node;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Places the nodes by pivot MDS: hop distances from a few pivot nodes, double centered, are projected on the
+ * two main axes of the pivots. The layout keeps the global shape of the graph, so ForceAtlas 2 mostly has
+ * local work left.
+ * <p>
+ * Pivots are picked farthest first, a round of pivots at a time, and the breadth-first searches of a round run
+ * in parallel, as do the passes over the nodes. Nodes a pivot can't reach count as one hop further than the
+ * farthest node it reaches. The cost is <code>O(pivots * (nodes + edges))</code>. The result is scaled to the
+ * requested mean edge length and slightly jittered, so nodes with the same distances don't overlap.
+ */
+public class PivotMdsNodePositionInitializer implements NodePositionInitializer {
+
+    private static final int POWER_ITERATIONS = 200;
+
+    private int pivotCount = 50;
+    private double edgeLength = 10.;
+    private long seed = 42;
+    private ExecutorService executor;
+
+    public PivotMdsNodePositionInitializer() {
+    }
+
+    @Override
+    public void initializeNodePositions(Graph graph) {
+        Node[] nodes = graph.getNodes();
+        int nodeCount = nodes.length;
+        if (nodeCount < 3) {
+            new RandomNodePositionInitializer().initializeNodePositions(graph);
+            return;
+        }
+        ExecutorService pool = getExecutor() != null ? getExecutor() : ForceAtlas2.getSharedExecutor();
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Random random = new Random(seed);
+
+        LayoutData data = LayoutData.fromGraph(graph);
+        data.buildAdjacency();
+
+        // Pivots, farthest first: each round takes the nodes the farthest from the pivots so far
+        int k = Math.min(pivotCount, nodeCount);
+        int[][] distances = new int[k][];
+        int[] minDistance = new int[nodeCount];
+        Arrays.fill(minDistance, Integer.MAX_VALUE);
+        boolean[] isPivot = new boolean[nodeCount];
+        int[] pivots = new int[k];
+        pivots[0] = random.nextInt(nodeCount);
+        isPivot[pivots[0]] = true;
+        int picked = 1;
+        int searched = 0;
+        while (searched < k) {
+            int from = searched;
+            int to = picked;
+            ParallelRanges.run(pool, ParallelRanges.split(to - from, Math.min(threadCount, to - from)),
+                    (first, last) -> () -> {
+                        int[] queue = new int[nodeCount];
+                        for (int p = from + first; p < from + last; p++) {
+                            distances[p] = breadthFirst(data, pivots[p], queue);
+                        }
+                    });
+            for (int p = from; p < to; p++) {
+                for (int n = 0; n < nodeCount; n++) {
+                    minDistance[n] = Math.min(minDistance[n], distances[p][n]);
+                }
+            }
+            searched = to;
+            picked = pickFarthest(minDistance, isPivot, pivots, picked, Math.min(k, picked + threadCount));
+        }
+
+        // Double centering of the squared distances: c = -1/2 (d^2 - row mean - column mean + mean)
+        double[] rowMean = new double[nodeCount];
+        double[] columnMean = new double[k];
+        for (int p = 0; p < k; p++) {
+            int[] column = distances[p];
+            double sum = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                double squared = (double) column[n] * column[n];
+                rowMean[n] += squared / k;
+                sum += squared;
+            }
+            columnMean[p] = sum / nodeCount;
+        }
+        double mean = 0;
+        for (int p = 0; p < k; p++) {
+            mean += columnMean[p] / k;
+        }
+        double grandMean = mean;
+
+        // C^T C, summed over ranges of nodes
+        int[] bounds = ParallelRanges.split(nodeCount, threadCount);
+        double[] covariance = ParallelRanges.sum(pool, bounds, (from, to) -> {
+            double[] partial = new double[k * k];
+            double[] row = new double[k];
+            for (int n = from; n < to; n++) {
+                centeredRow(distances, n, rowMean[n], columnMean, grandMean, row);
+                for (int i = 0; i < k; i++) {
+                    for (int j = i; j < k; j++) {
+                        partial[i * k + j] += row[i] * row[j];
+                    }
+                }
+            }
+            return partial;
+        });
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < i; j++) {
+                covariance[i * k + j] = covariance[j * k + i];
+            }
+        }
+
+        // The two main axes, by power iteration with deflation
+        double[] first = mainAxis(covariance, k, random);
+        double firstValue = rayleigh(covariance, k, first);
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                covariance[i * k + j] -= firstValue * first[i] * first[j];
+            }
+        }
+        double[] second = mainAxis(covariance, k, random);
+
+        // Projection on the axes
+        float[] x = data.x;
+        float[] y = data.y;
+        ParallelRanges.run(pool, bounds, (from, to) -> () -> {
+            double[] row = new double[k];
+            for (int n = from; n < to; n++) {
+                centeredRow(distances, n, rowMean[n], columnMean, grandMean, row);
+                double px = 0;
+                double py = 0;
+                for (int i = 0; i < k; i++) {
+                    px += row[i] * first[i];
+                    py += row[i] * second[i];
+                }
+                x[n] = (float) px;
+                y[n] = (float) py;
+            }
+        });
+
+        // Scale to the mean edge length
+        double length = 0;
+        int counted = 0;
+        for (int e = 0; e < data.edgeCount; e++) {
+            int source = data.edgeSource[e];
+            int target = data.edgeTarget[e];
+            if (source != target) {
+                length += Math.hypot(x[source] - x[target], y[source] - y[target]);
+                counted++;
+            }
+        }
+        double scale = counted > 0 && length > 0 ? edgeLength * counted / length : 1;
+        for (int n = 0; n < nodeCount; n++) {
+            double angle = 2 * Math.PI * random.nextDouble();
+            double jitter = 0.1 * edgeLength * random.nextDouble();
+            nodes[n].setX((float) (x[n] * scale + jitter * Math.cos(angle)));
+            nodes[n].setY((float) (y[n] * scale + jitter * Math.sin(angle)));
+        }
+    }
+
+    // Hop distances from a node, the unreachable nodes are one hop further than the farthest reached one
+    private static int[] breadthFirst(LayoutData data, int source, int[] queue) {
+        int nodeCount = data.nodeCount;
+        int[] start = data.adjacencyStart;
+        int[] other = data.adjacencyNode;
+        int[] distance = new int[nodeCount];
+        Arrays.fill(distance, -1);
+        distance[source] = 0;
+        queue[0] = source;
+        int head = 0;
+        int tail = 1;
+        int farthest = 0;
+        while (head < tail) {
+            int n = queue[head++];
+            farthest = distance[n];
+            for (int k = start[n]; k < start[n + 1]; k++) {
+                int n2 = other[k];
+                if (distance[n2] < 0) {
+                    distance[n2] = distance[n] + 1;
+                    queue[tail++] = n2;
+                }
+            }
+        }
+        if (tail < nodeCount) {
+            for (int n = 0; n < nodeCount; n++) {
+                if (distance[n] < 0) {
+                    distance[n] = farthest + 1;
+                }
+            }
+        }
+        return distance;
+    }
+
+    // Adds the nodes the farthest from the pivots until there are count pivots, returns the pivot count
+    private static int pickFarthest(int[] minDistance, boolean[] isPivot, int[] pivots, int picked, int count) {
+        while (picked < count) {
+            int best = -1;
+            for (int n = 0; n < minDistance.length; n++) {
+                if (!isPivot[n] && (best < 0 || minDistance[n] > minDistance[best])) {
+                    best = n;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            isPivot[best] = true;
+            pivots[picked++] = best;
+            // Only the distance of the pivot to itself is known before its search
+            minDistance[best] = 0;
+        }
+        return picked;
+    }
+
+    private static void centeredRow(int[][] distances, int n, double rowMean, double[] columnMean, double mean,
+                                    double[] row) {
+        for (int p = 0; p < row.length; p++) {
+            double d = distances[p][n];
+            row[p] = -0.5 * (d * d - rowMean - columnMean[p] + mean);
+        }
+    }
+
+    private static double[] mainAxis(double[] matrix, int k, Random random) {
+        double[] v = new double[k];
+        for (int i = 0; i < k; i++) {
+            v[i] = random.nextDouble() - 0.5;
+        }
+        normalize(v);
+        double[] next = new double[k];
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            for (int i = 0; i < k; i++) {
+                double sum = 0;
+                for (int j = 0; j < k; j++) {
+                    sum += matrix[i * k + j] * v[j];
+                }
+                next[i] = sum;
+            }
+            if (!normalize(next)) {
+                break;
+            }
+            System.arraycopy(next, 0, v, 0, k);
+        }
+        return v;
+    }
+
+    private static double rayleigh(double[] matrix, int k, double[] v) {
+        double value = 0;
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                value += v[i] * matrix[i * k + j] * v[j];
+            }
+        }
+        return value;
+    }
+
+    private static boolean normalize(double[] v) {
+        double norm = 0;
+        for (double value : v) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        if (norm == 0) {
+            return false;
+        }
+        for (int i = 0; i < v.length; i++) {
+            v[i] /= norm;
+        }
+        return true;
+    }
+
+    public Integer getPivotCount() {
+        return pivotCount;
+    }
+
+    public void setPivotCount(Integer pivotCount) {
+        this.pivotCount = Math.max(1, pivotCount);
+    }
+
+    public Double getEdgeLength() {
+        return edgeLength;
+    }
+
+    /**
+     * Mean length of the edges in the initial layout.
+     */
+    public void setEdgeLength(Double edgeLength) {
+        this.edgeLength = edgeLength;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs on the given executor, {@link ForceAtlas2#getSharedExecutor()} when <code>null</code>.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+}
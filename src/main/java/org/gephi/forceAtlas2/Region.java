@@ -43,10 +43,15 @@ package org.gephi.forceAtlas2;
 
 import org.gephi.model.Node;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Barnes Hut optimization
+ * <p>
+ * The categories of the nodes are counted on their ids in a {@link CategoryIndex}: in an array indexed by id when
+ * there are no more categories than nodes in the region, else in a sorted array of the ids present.
  *
  * @author Mathieu Jacomy
  */
@@ -56,126 +61,147 @@ public class Region {
     private double massCenterX;
     private double massCenterY;
     private double size;
-    private final List<Node> nodes;
+    private final Node[] nodes;
+    private final int[] nodeCategories;
+    private final CategoryIndex categories;
     private final List<Region> subregions = new ArrayList<>();
-    private final HashMap<String, Double> categoryPercentages = new HashMap<>();
+    // Node count of each category id, or of each id of categoryIds when these are sparse
+    private int[] categoryCounts;
+    private int[] categoryIds;
 
 
     public Region(Node[] nodes) {
-        this.nodes = new ArrayList<>();
-        this.nodes.addAll(Arrays.asList(nodes));
-        updateMassAndGeometry();
+        this(nodes, new CategoryIndex(nodes));
     }
 
     public Region(ArrayList<Node> nodes) {
-        this.nodes = new ArrayList<>(nodes);
+        this(nodes.toArray(new Node[0]));
+    }
+
+    /**
+     * @param categories the categories of <code>nodes</code>, interned in the same order
+     */
+    public Region(Node[] nodes, CategoryIndex categories) {
+        this(nodes.clone(), categories.getNodeCategories().clone(), categories);
+    }
+
+    private Region(Node[] nodes, int[] nodeCategories, CategoryIndex categories) {
+        this.nodes = nodes;
+        this.nodeCategories = nodeCategories;
+        this.categories = categories;
         updateMassAndGeometry();
     }
 
     public double getCategoryPercentage(String category) {
-        return Optional.ofNullable(categoryPercentages.get(category)).orElse(0.0);
+        int id = categories.getId(category);
+        return id >= 0 ? getCategoryPercentage(id) : 0.0;
+    }
+
+    /**
+     * Returns the share of the nodes of the region in the category of id <code>categoryId</code>, see
+     * {@link #getCategories()}.
+     */
+    public double getCategoryPercentage(int categoryId) {
+        int count;
+        if (categoryIds == null) {
+            count = categoryId >= 0 && categoryId < categoryCounts.length ? categoryCounts[categoryId] : 0;
+        } else {
+            int index = Arrays.binarySearch(categoryIds, categoryId);
+            count = index >= 0 ? categoryCounts[index] : 0;
+        }
+        return nodes.length > 0 ? ((double) count) / nodes.length : 0.0;
+    }
+
+    public CategoryIndex getCategories() {
+        return categories;
     }
 
     private void updateMassAndGeometry() {
-        categoryPercentages.clear();
-        if (nodes.size() > 1) {
+        countCategories();
+        if (nodes.length > 1) {
             // Compute Mass
             mass = 0;
             double massSumX = 0;
             double massSumY = 0;
-            HashMap<String, Integer> categoryCount = new HashMap<>();
             for (Node n : nodes) {
                 mass += n.getMass();
                 massSumX += n.getX() * n.getMass();
                 massSumY += n.getY() * n.getMass();
-                categoryCount.put(n.getCategory(), Optional.ofNullable(categoryCount.get(n.getCategory())).orElse(0) + 1);
             }
             massCenterX = massSumX / mass;
             massCenterY = massSumY / mass;
-            categoryCount.forEach((s, integer) -> categoryPercentages.put(s, ((double) integer) / nodes.size()));
             // Compute size
             size = Double.MIN_VALUE;
             for (Node n : nodes) {
                 double distance = Math.sqrt((n.getX() - massCenterX) * (n.getX() - massCenterX) + (n.getY() - massCenterY) * (n.getY() - massCenterY));
                 size = Math.max(size, 2 * distance);
             }
-        } else if (nodes.size() == 1) {
-            categoryPercentages.put(nodes.get(0).getCategory(), 1.0);
         }
     }
 
-    public synchronized void buildSubRegions() {
-        if (nodes.size() > 1) {
-            ArrayList<Node> leftNodes = new ArrayList<>();
-            ArrayList<Node> rightNodes = new ArrayList<>();
-            for (Node n : nodes) {
-                ArrayList<Node> nodesColumn = (n.getX() < massCenterX) ? (leftNodes) : (rightNodes);
-                nodesColumn.add(n);
+    private void countCategories() {
+        if (categories.size() <= nodes.length) {
+            categoryIds = null;
+            categoryCounts = new int[categories.size()];
+            for (int category : nodeCategories) {
+                categoryCounts[category]++;
             }
-
-            ArrayList<Node> topleftNodes = new ArrayList<>();
-            ArrayList<Node> bottomleftNodes = new ArrayList<>();
-            for (Node n : leftNodes) {
-                ArrayList<Node> nodesLine = (n.getY() < massCenterY) ? (topleftNodes) : (bottomleftNodes);
-                nodesLine.add(n);
+            return;
+        }
+        // More categories than nodes: run lengths of the sorted ids
+        int[] sorted = nodeCategories.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
             }
-
-            ArrayList<Node> bottomrightNodes = new ArrayList<>();
-            ArrayList<Node> toprightNodes = new ArrayList<>();
-            for (Node n : rightNodes) {
-                ArrayList<Node> nodesLine = (n.getY() < massCenterY) ? (toprightNodes) : (bottomrightNodes);
-                nodesLine.add(n);
+        }
+        categoryIds = new int[distinct];
+        categoryCounts = new int[distinct];
+        int d = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                categoryIds[++d] = sorted[i];
             }
+            categoryCounts[d]++;
+        }
+    }
 
-            if (topleftNodes.size() > 0) {
-                if (topleftNodes.size() < nodes.size()) {
-                    Region subregion = new Region(topleftNodes);
-                    subregions.add(subregion);
-                } else {
-                    for (Node n : topleftNodes) {
-                        ArrayList<Node> oneNodeList = new ArrayList<>();
-                        oneNodeList.add(n);
-                        Region subregion = new Region(oneNodeList);
-                        subregions.add(subregion);
-                    }
-                }
+    public synchronized void buildSubRegions() {
+        if (nodes.length > 1) {
+            // Quadrants in the order top left, bottom left, bottom right, top right, the nodes keep their order
+            int[] quadrants = new int[nodes.length];
+            int[] quadrantSizes = new int[4];
+            for (int i = 0; i < nodes.length; i++) {
+                Node n = nodes[i];
+                boolean top = n.getY() < massCenterY;
+                int quadrant = (n.getX() < massCenterX) ? (top ? 0 : 1) : (top ? 3 : 2);
+                quadrants[i] = quadrant;
+                quadrantSizes[quadrant]++;
             }
-            if (bottomleftNodes.size() > 0) {
-                if (bottomleftNodes.size() < nodes.size()) {
-                    Region subregion = new Region(bottomleftNodes);
-                    subregions.add(subregion);
-                } else {
-                    for (Node n : bottomleftNodes) {
-                        ArrayList<Node> oneNodeList = new ArrayList<>();
-                        oneNodeList.add(n);
-                        Region subregion = new Region(oneNodeList);
-                        subregions.add(subregion);
-                    }
+
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                int quadrantSize = quadrantSizes[quadrant];
+                if (quadrantSize == 0) {
+                    continue;
                 }
-            }
-            if (bottomrightNodes.size() > 0) {
-                if (bottomrightNodes.size() < nodes.size()) {
-                    Region subregion = new Region(bottomrightNodes);
-                    subregions.add(subregion);
-                } else {
-                    for (Node n : bottomrightNodes) {
-                        ArrayList<Node> oneNodeList = new ArrayList<>();
-                        oneNodeList.add(n);
-                        Region subregion = new Region(oneNodeList);
-                        subregions.add(subregion);
+                Node[] quadrantNodes = new Node[quadrantSize];
+                int[] quadrantCategories = new int[quadrantSize];
+                int k = 0;
+                for (int i = 0; i < nodes.length; i++) {
+                    if (quadrants[i] == quadrant) {
+                        quadrantNodes[k] = nodes[i];
+                        quadrantCategories[k] = nodeCategories[i];
+                        k++;
                     }
                 }
-            }
-            if (toprightNodes.size() > 0) {
-                if (toprightNodes.size() < nodes.size()) {
-                    Region subregion = new Region(toprightNodes);
-                    subregions.add(subregion);
+                if (quadrantSize < nodes.length) {
+                    subregions.add(new Region(quadrantNodes, quadrantCategories, categories));
                 } else {
-                    for (Node n : toprightNodes) {
-                        ArrayList<Node> oneNodeList = new ArrayList<>();
-                        oneNodeList.add(n);
-                        Region subregion = new Region(oneNodeList);
-                        subregions.add(subregion);
+                    for (int i = 0; i < quadrantSize; i++) {
+                        subregions.add(new Region(new Node[]{quadrantNodes[i]}, new int[]{quadrantCategories[i]},
+                                categories));
                     }
                 }
             }
@@ -187,8 +213,8 @@ public class Region {
     }
 
     public void applyForce(Node n, ForceFactory.RepulsionForce Force, double theta) {
-        if (nodes.size() < 2) {
-            Node regionNode = nodes.get(0);
+        if (nodes.length < 2) {
+            Node regionNode = nodes[0];
             Force.apply(n, regionNode);
         } else {
             double distance = Math.sqrt((n.getX() - massCenterX) * (n.getX() - massCenterX) + (n.getY() - massCenterY) * (n.getY() - massCenterY));
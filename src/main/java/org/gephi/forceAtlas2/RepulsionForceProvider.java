@@ -4,4 +4,13 @@ package org.gephi.forceAtlas2;
 public interface RepulsionForceProvider {
 
     ForceFactory.RepulsionForce getRepulsionForce(boolean adjustBySize, double coefficent);
+
+    /**
+     * Returns the same repulsion computed over columns, or <code>null</code> when the provider only works on
+     * <code>Node</code> objects. A provider with a bulk force runs on the array layout, see
+     * {@link ForceAtlas2#setArrayLayout(Boolean)}.
+     */
+    default BulkRepulsionForce getBulkRepulsionForce(boolean adjustBySize, double coefficient) {
+        return null;
+    }
 }
@@ -0,0 +1,68 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Outcome of {@link ForceAtlas2#run(StopCriteria)}.
+ */
+public class RunResult {
+
+    private StopReason reason;
+    private int iterations;
+    private long elapsedMillis;
+    private double swinging;
+    private double traction;
+
+    public RunResult() {
+    }
+
+    public StopReason getReason() {
+        return reason;
+    }
+
+    public void setReason(StopReason reason) {
+        this.reason = reason;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Swinging of the last iteration, see {@link ForceAtlas2#getSwinging()}.
+     */
+    public double getSwinging() {
+        return swinging;
+    }
+
+    public void setSwinging(double swinging) {
+        this.swinging = swinging;
+    }
+
+    /**
+     * Traction of the last iteration, see {@link ForceAtlas2#getTraction()}.
+     */
+    public double getTraction() {
+        return traction;
+    }
+
+    public void setTraction(double traction) {
+        this.traction = traction;
+    }
+
+    @Override
+    public String toString() {
+        return "RunResult{reason=" + reason + ", iterations=" + iterations + ", elapsedMillis=" + elapsedMillis
+                + ", swinging=" + swinging + ", traction=" + traction + '}';
+    }
+}
@@ -0,0 +1,54 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * When {@link ForceAtlas2#run(StopCriteria)} stops. Unset (<code>null</code>) criteria are ignored, the run
+ * stops on the first criterion met.
+ * <p>
+ * The swinging and traction thresholds are compared to {@link ForceAtlas2#getSwinging()} and
+ * {@link ForceAtlas2#getTraction()}: the layout is converged when every threshold that is set is above its value.
+ */
+public class StopCriteria {
+
+    private Integer maxIterations;
+    private Long timeBudgetMillis;
+    private Double swingingThreshold;
+    private Double tractionThreshold;
+
+    public StopCriteria() {
+    }
+
+    public Integer getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(Integer maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Wall-clock time after which no new iteration starts.
+     */
+    public Long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    public void setTimeBudgetMillis(Long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public Double getSwingingThreshold() {
+        return swingingThreshold;
+    }
+
+    public void setSwingingThreshold(Double swingingThreshold) {
+        this.swingingThreshold = swingingThreshold;
+    }
+
+    public Double getTractionThreshold() {
+        return tractionThreshold;
+    }
+
+    public void setTractionThreshold(Double tractionThreshold) {
+        this.tractionThreshold = tractionThreshold;
+    }
+}
@@ -0,0 +1,22 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * Why {@link ForceAtlas2#run(StopCriteria)} stopped.
+ */
+public enum StopReason {
+
+    /**
+     * The swinging and traction went below the thresholds of the criteria.
+     */
+    CONVERGED,
+
+    /**
+     * The maximum number of iterations was reached.
+     */
+    MAX_ITERATIONS,
+
+    /**
+     * The time budget was spent.
+     */
+    TIME_BUDGET
+}
@@ -0,0 +1,22 @@
+package org.gephi.forceAtlas2;
+
+/**
+ * How much of the per node force diagnostics {@link ForceAtlas2} records at each iteration.
+ */
+public enum StrengthsLogLevel {
+
+    /**
+     * Nothing is recorded, {@link ForceAtlas2#getNodesProperties()} returns <code>null</code>.
+     */
+    OFF,
+
+    /**
+     * Only every n-th node is recorded, see {@link ForceAtlas2#setStrengthsLogSampleStride(Integer)}.
+     */
+    SAMPLED,
+
+    /**
+     * Every node is recorded.
+     */
+    FULL
+}
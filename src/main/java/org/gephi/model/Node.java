@@ -18,6 +18,16 @@ public interface Node extends DataContainer {
 
     void setY(float y);
 
+    /**
+     * Depth of the node, only used by the 3D layout. Nodes without a depth stay in the plane.
+     */
+    default float getZ() {
+        return 0;
+    }
+
+    default void setZ(float z) {
+    }
+
     float getMass();
 
     void setMass(float mass);
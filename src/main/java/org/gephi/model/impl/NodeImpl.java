@@ -12,6 +12,7 @@ public class NodeImpl implements Node {
     private String label;
     private float x;
     private float y;
+    private float z;
     private float dx;
     private float dy;
     private float oldDx;
@@ -66,6 +67,16 @@ public class NodeImpl implements Node {
         this.y = y;
     }
 
+    @Override
+    public float getZ() {
+        return z;
+    }
+
+    @Override
+    public void setZ(float z) {
+        this.z = z;
+    }
+
     @Override
     public float getMass() {
         return mass;